@@ -0,0 +1,72 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.Index;
+
+/**
+ * DATE storage with {@code bucket = "DAY"}: the callback also derives the indexed createdBucket column from 'created'
+ * with the allocation-free civil date helper.
+ */
+@Entity
+public class BucketEntity extends SampleEntity {
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    @Index(name = "bucketentity_createdBucket_idx")
+    private int createdBucket;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        long now = System.currentTimeMillis();
+        if (this.created == null) {
+            this.created = new java.util.Date(now);
+        }
+        this.updated = new java.util.Date(now);
+        this.createdBucket = toCreatedBucket(this.created.getTime());
+    }
+
+    private static int toCreatedBucket(long epochMillis) {
+        long days = epochMillis / 86400000L;
+        long millisOfDay = epochMillis % 86400000L;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += 86400000L;
+        }
+        // Civil date from days, counted in 400-year eras starting on March 1st
+        long z = days + 719468L;
+        long era = (z >= 0 ? z : z - 146096L) / 146097L;
+        long dayOfEra = z - era * 146097L;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460L + dayOfEra / 36524L - dayOfEra / 146096L) / 365L;
+        long dayOfYear = dayOfEra - (365L * yearOfEra + yearOfEra / 4L - yearOfEra / 100L);
+        long shiftedMonth = (5L * dayOfYear + 2L) / 153L;
+        int day = (int) (dayOfYear - (153L * shiftedMonth + 2L) / 5L + 1L);
+        int month = (int) (shiftedMonth < 10L ? shiftedMonth + 3L : shiftedMonth - 9L);
+        int year = (int) (yearOfEra + era * 400L + (month <= 2 ? 1L : 0L));
+        int hour = (int) (millisOfDay / 3600000L);
+        return year * 10000 + month * 100 + day;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public int getCreatedBucket() {
+        return createdBucket;
+    }
+}
@@ -0,0 +1,59 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the persist/update callback, followed by the post-write callback where the variant has one, on its own. Run with {@code -prof gc} to get the allocation rate per variant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class CallbackBenchmark {
+
+    @Param
+    private CallbackVariant variant;
+
+    private SampleEntity entity;
+
+    @Setup
+    public void setUp() {
+        variant.beginBatch();
+        entity = variant.newEntity();
+    }
+
+    @TearDown
+    public void tearDown() {
+        variant.endBatch();
+    }
+
+    @Benchmark
+    public SampleEntity update() {
+        entity.onUpdate();
+        entity.afterWrite();
+        return entity;
+    }
+
+    @Benchmark
+    public SampleEntity persist() {
+        SampleEntity created = variant.newEntity();
+        created.onUpdate();
+        created.afterWrite();
+        return created;
+    }
+}
@@ -0,0 +1,146 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * The callback styles the add-on can generate, each backed by a sample entity.
+ */
+public enum CallbackVariant {
+
+    DATE {
+        @Override
+        SampleEntity newEntity() {
+            return new DateEntity();
+        }
+    },
+    CLOCK_DATE {
+        @Override
+        SampleEntity newEntity() {
+            return new ClockDateEntity();
+        }
+    },
+    INSTANT {
+        @Override
+        SampleEntity newEntity() {
+            return new InstantEntity();
+        }
+    },
+    EPOCH_MILLIS {
+        @Override
+        SampleEntity newEntity() {
+            return new EpochMillisEntity();
+        }
+    },
+    LISTENER {
+        @Override
+        SampleEntity newEntity() {
+            return new ListenerEntity();
+        }
+    },
+    BUCKET {
+        @Override
+        SampleEntity newEntity() {
+            return new BucketEntity();
+        }
+    },
+    VERSION {
+        @Override
+        SampleEntity newEntity() {
+            return new VersionEntity();
+        }
+    },
+    /**
+     * Post-write history events, queued on a writer that inserts them into the benchmark database
+     */
+    HISTORY {
+        @Override
+        SampleEntity newEntity() {
+            return new HistoryEntity();
+        }
+
+        @Override
+        void beginBatch() {
+            startHistoryWriter();
+        }
+    },
+    WATERMARK {
+        @Override
+        SampleEntity newEntity() {
+            return new WatermarkEntity();
+        }
+    },
+    /**
+     * A bulk load of rows that already carry historical timestamps, with the import switch on
+     */
+    IMPORT {
+        @Override
+        SampleEntity newEntity() {
+            ImportDateEntity entity = new ImportDateEntity();
+            entity.setCreated(new Date(HISTORICAL_MILLIS));
+            entity.setUpdated(new Date(HISTORICAL_MILLIS));
+            return entity;
+        }
+
+        @Override
+        void beginBatch() {
+            ImportDateEntity.setTimestampImport(true);
+        }
+
+        @Override
+        void endBatch() {
+            ImportDateEntity.setTimestampImport(false);
+        }
+    };
+
+    private static final long HISTORICAL_MILLIS = 946684800000L;
+
+    // The database of the timestamp-benchmarks persistence unit
+    private static final String JDBC_URL = "jdbc:h2:mem:timestamp;DB_CLOSE_DELAY=-1";
+
+    abstract SampleEntity newEntity();
+
+    /**
+     * Called on the benchmark thread before its entities are created and flushed
+     */
+    void beginBatch() {
+    }
+
+    void endBatch() {
+    }
+
+    /**
+     * Starts the history writer once per benchmark JVM. It keeps running between batches, as in an application, and
+     * drops events once it falls behind, as its default overflow policy does. The table is created here as well, since
+     * the callback-only benchmarks never create the schema.
+     */
+    private static synchronized void startHistoryWriter() {
+        if (TimestampHistoryWriter.getActive() != null) {
+            return;
+        }
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL(JDBC_URL);
+        dataSource.setUser("sa");
+        dataSource.setPassword("");
+        try {
+            Connection connection = dataSource.getConnection();
+            try {
+                Statement statement = connection.createStatement();
+                statement.execute("CREATE TABLE IF NOT EXISTS " + TimestampHistory.TABLE
+                        + " (id BIGINT AUTO_INCREMENT PRIMARY KEY, entity_name VARCHAR(255) NOT NULL, entity_id VARCHAR(255) NOT NULL, updated TIMESTAMP NOT NULL)");
+                statement.close();
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Unable to create the " + TimestampHistory.TABLE + " table", e);
+        }
+        TimestampHistoryWriter writer = new TimestampHistoryWriter();
+        writer.setDataSource(dataSource);
+        writer.start();
+    }
+}
@@ -0,0 +1,40 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * DATE storage with a single clock read per invocation (the default since the pluggable clock).
+ */
+@Entity
+public class ClockDateEntity extends SampleEntity {
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        long now = System.currentTimeMillis();
+        if (this.created == null) {
+            this.created = new java.util.Date(now);
+        }
+        this.updated = new java.util.Date(now);
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+}
@@ -0,0 +1,39 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * The original callback: DATE storage with two {@code new java.util.Date()} per invocation.
+ */
+@Entity
+public class DateEntity extends SampleEntity {
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        if (this.created == null) {
+            this.created = new java.util.Date();
+        }
+        this.updated = new java.util.Date();
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+}
@@ -0,0 +1,34 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import javax.persistence.Entity;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * EPOCH_MILLIS storage: an allocation-free callback.
+ */
+@Entity
+public class EpochMillisEntity extends SampleEntity {
+
+    private long created;
+
+    private long updated;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        long now = System.currentTimeMillis();
+        if (this.created == 0L) {
+            this.created = now;
+        }
+        this.updated = now;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+}
@@ -0,0 +1,70 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures batched inserts through JPA into an in-memory H2 database, so the callback cost is seen next to the
+ * ORM and JDBC work it is part of.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlushBenchmark {
+
+    @Param
+    private CallbackVariant variant;
+
+    @Param({ "50", "500" })
+    private int batchSize;
+
+    private EntityManagerFactory entityManagerFactory;
+
+    @Setup
+    public void setUp() {
+        entityManagerFactory = Persistence.createEntityManagerFactory("timestamp-benchmarks");
+    }
+
+    @TearDown
+    public void tearDown() {
+        entityManagerFactory.close();
+    }
+
+    @Benchmark
+    public int persistBatch() {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        variant.beginBatch();
+        try {
+            entityManager.getTransaction().begin();
+            for (int i = 0; i < batchSize; i++) {
+                SampleEntity entity = variant.newEntity();
+                entity.setName("sample-" + i);
+                entityManager.persist(entity);
+            }
+            entityManager.getTransaction().commit();
+            return batchSize;
+        } finally {
+            variant.endBatch();
+            entityManager.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.PostPersist;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * DATE storage with {@code history = TimestampHistoryWriter.class}: after every write the entity queues a history
+ * event on the asynchronous {@link TimestampHistoryWriter}.
+ */
+@Entity
+public class HistoryEntity extends SampleEntity {
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        long now = System.currentTimeMillis();
+        if (this.created == null) {
+            this.created = new java.util.Date(now);
+        }
+        this.updated = new java.util.Date(now);
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void recordHistory() {
+        long modified = this.updated == null ? System.currentTimeMillis() : this.updated.getTime();
+        TimestampHistoryWriter.record("HistoryEntity", this.getId(), modified);
+    }
+
+    /**
+     * Invokes the post-write callback the way the JPA provider does, for the callback-only benchmarks
+     */
+    @Override
+    public void afterWrite() {
+        recordHistory();
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+}
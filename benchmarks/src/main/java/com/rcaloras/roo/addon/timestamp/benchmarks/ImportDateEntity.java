@@ -0,0 +1,65 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * DATE storage with {@code importMode = true}: the callback checks a per-thread switch first and keeps the
+ * timestamps the caller supplied while it is on.
+ */
+@Entity
+public class ImportDateEntity extends SampleEntity {
+
+    private static final ThreadLocal<Boolean> timestampImport = new ThreadLocal<Boolean>();
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    public static void setTimestampImport(boolean enabled) {
+        if (enabled) {
+            timestampImport.set(Boolean.TRUE);
+        } else {
+            timestampImport.remove();
+        }
+    }
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        boolean importing = timestampImport.get() != null;
+        if (importing && !(this.created == null) && !(this.updated == null)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (this.created == null) {
+            this.created = new java.util.Date(now);
+        }
+        if (!importing || this.updated == null) {
+            this.updated = new java.util.Date(now);
+        }
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(Date updated) {
+        this.updated = updated;
+    }
+}
@@ -0,0 +1,36 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.time.Instant;
+
+import javax.persistence.Entity;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * INSTANT storage: one immutable value shared by both fields.
+ */
+@Entity
+public class InstantEntity extends SampleEntity {
+
+    private Instant created;
+
+    private Instant updated;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        java.time.Instant now = java.time.Instant.now();
+        if (this.created == null) {
+            this.created = now;
+        }
+        this.updated = now;
+    }
+
+    public Instant getCreated() {
+        return created;
+    }
+
+    public Instant getUpdated() {
+        return updated;
+    }
+}
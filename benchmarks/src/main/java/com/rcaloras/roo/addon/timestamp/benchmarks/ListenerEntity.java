@@ -0,0 +1,48 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityListeners;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * Listener mode: the entity only implements Timestamped and registers the shared {@link TimestampListener}.
+ */
+@Entity
+@EntityListeners(TimestampListener.class)
+public class ListenerEntity extends SampleEntity implements Timestamped {
+
+    private static final TimestampListener LISTENER = new TimestampListener();
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    /**
+     * Invokes the shared listener the way the JPA provider does, for the callback-only benchmarks
+     */
+    @Override
+    public void onUpdate() {
+        LISTENER.onUpdate(this);
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(Date updated) {
+        this.updated = updated;
+    }
+}
@@ -0,0 +1,44 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.MappedSuperclass;
+
+/**
+ * Common state of the sample entities. Each subclass carries the fields and callback exactly as the Timestamp ITD
+ * introduces them for one generation mode, written out as the woven class sees them.
+ */
+@MappedSuperclass
+public abstract class SampleEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE)
+    private Long id;
+
+    private String name;
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs the persist/update callback the way the JPA provider would
+     */
+    public abstract void onUpdate();
+
+    /**
+     * Runs the post-persist/post-update callback the way the JPA provider would; only the variants that generate one
+     * override it
+     */
+    public void afterWrite() {
+    }
+}
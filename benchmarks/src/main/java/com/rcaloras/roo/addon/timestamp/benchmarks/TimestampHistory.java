@@ -0,0 +1,62 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import org.hibernate.annotations.Index;
+
+/**
+ * Copy of the TimestampHistory installed by {@code timestamp history}.
+ * <p>
+ * Append-only history row written by {@link TimestampHistoryWriter}, one per persisted or updated
+ * {@code @RooTimestamp(history = TimestampHistoryWriter.class)} entity. It is mapped so that the schema tool creates
+ * the table; rows are inserted with plain JDBC batches and are never changed through JPA.
+ */
+@Entity
+@Table(name = TimestampHistory.TABLE)
+@org.hibernate.annotations.Table(appliesTo = TimestampHistory.TABLE, indexes = { @Index(name = "timestamp_history_entity_idx", columnNames = { "entity_name", "entity_id" }) })
+public class TimestampHistory {
+
+    static final String TABLE = "timestamp_history";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "entity_name", nullable = false)
+    private String entityName;
+
+    @Column(name = "entity_id", nullable = false)
+    private String entityId;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated", nullable = false)
+    private Date updated;
+
+    protected TimestampHistory() {
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getEntityName() {
+        return entityName;
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+}
@@ -0,0 +1,301 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * Copy of the TimestampHistoryWriter installed by {@code timestamp history}.
+ * <p>
+ * Asynchronous writer of the {@link TimestampHistory} table for entities with
+ * {@code @RooTimestamp(history = TimestampHistoryWriter.class)}. Their generated post-persist/post-update callback
+ * only puts an event on a bounded in-memory queue; a daemon thread inserts the queued events with JDBC batches of at
+ * most {@link #setBatchSize(int) batchSize} rows, waiting at most {@link #setFlushIntervalMillis(long)
+ * flushIntervalMillis} for a batch to fill. When the queue is full the {@link OverflowPolicy} decides whether the
+ * caller waits or the event is dropped and counted.
+ * <p>
+ * History is only recorded while a writer is started, e.g. from applicationContext.xml:
+ *
+ * <pre>
+ * &lt;bean class="com.rcaloras.roo.addon.timestamp.benchmarks.TimestampHistoryWriter" init-method="start" destroy-method="stop"&gt;
+ *     &lt;property name="dataSource" ref="dataSource"/&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ *
+ * Events are written outside the entity's transaction, so a rolled back change can still leave a history row.
+ */
+public class TimestampHistoryWriter {
+
+    public enum OverflowPolicy {
+        /**
+         * Discard the event and count it in {@link TimestampHistoryWriter#getDroppedCount()}; the caller never waits
+         */
+        DROP,
+
+        /**
+         * Make the caller wait for room in the queue, slowing writers down to the rate the history table can absorb
+         */
+        BLOCK
+    }
+
+    private static final Logger LOGGER = Logger.getLogger(TimestampHistoryWriter.class.getName());
+    private static final String INSERT = "INSERT INTO " + TimestampHistory.TABLE + " (entity_name, entity_id, updated) VALUES (?, ?, ?)";
+
+    private static volatile TimestampHistoryWriter active;
+
+    private DataSource dataSource;
+    private int capacity = 10000;
+    private int batchSize = 500;
+    private long flushIntervalMillis = 1000;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile BlockingQueue<Event> queue;
+    private volatile boolean running;
+    private Thread worker;
+
+    /**
+     * Queues a history event on the started writer; does nothing if no writer is started.
+     *
+     * @param entityName the JPQL name of the entity
+     * @param entityId the entity's identifier, converted to a String by the writer thread
+     * @param updatedMillis the entity's 'updated' time in epoch milliseconds
+     */
+    public static void record(String entityName, Object entityId, long updatedMillis) {
+        TimestampHistoryWriter writer = active;
+        if (writer != null) {
+            writer.enqueue(new Event(entityName, entityId, updatedMillis));
+        }
+    }
+
+    /**
+     * @return the started writer, or null if history is not being recorded
+     */
+    public static TimestampHistoryWriter getActive() {
+        return active;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param capacity the number of events the queue holds before the overflow policy applies (default 10000)
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param batchSize the maximum number of rows per JDBC batch (default 500)
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param flushIntervalMillis the longest a queued event waits for its batch to fill (default 1000)
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Starts the writer thread and makes this the writer that generated callbacks record to.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        if (dataSource == null) {
+            throw new IllegalStateException("A DataSource is required");
+        }
+        if (capacity < 1 || batchSize < 1 || flushIntervalMillis < 1 || overflowPolicy == null) {
+            throw new IllegalStateException("Capacity, batch size and flush interval must be positive and an overflow policy is required");
+        }
+        queue = new ArrayBlockingQueue<Event>(capacity);
+        running = true;
+        worker = new Thread("timestamp-history") {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+        active = this;
+    }
+
+    /**
+     * Stops recording, then waits until every queued event has been written.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        if (active == this) {
+            active = null;
+        }
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+
+    public long getRecordedCount() {
+        return recorded.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public int getQueueSize() {
+        BlockingQueue<Event> current = queue;
+        return current == null ? 0 : current.size();
+    }
+
+    private void enqueue(Event event) {
+        BlockingQueue<Event> current = queue;
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                current.put(event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                dropped.incrementAndGet();
+                return;
+            }
+        } else if (!current.offer(event)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        recorded.incrementAndGet();
+    }
+
+    private void writeLoop() {
+        List<Event> batch = new ArrayList<Event>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Event first = queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.currentTimeMillis() + flushIntervalMillis;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    Event next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Keep draining; stop() ends the loop once the queue is empty
+                Thread.interrupted();
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Event> batch) {
+        Connection connection = null;
+        PreparedStatement statement = null;
+        Boolean autoCommit = null;
+        boolean committed = false;
+        try {
+            connection = dataSource.getConnection();
+            autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(INSERT);
+            for (Event event : batch) {
+                statement.setString(1, event.entityName);
+                statement.setString(2, String.valueOf(event.entityId));
+                statement.setTimestamp(3, new Timestamp(event.updatedMillis));
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            connection.commit();
+            committed = true;
+            written.addAndGet(batch.size());
+        } catch (SQLException e) {
+            failed.addAndGet(batch.size());
+            LOGGER.log(Level.WARNING, "Unable to write " + batch.size() + " timestamp history rows", e);
+        } finally {
+            if (statement != null) {
+                try {
+                    statement.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            if (connection != null) {
+                // A pooled connection must go back without an open transaction and in the auto-commit mode it came with
+                if (autoCommit != null) {
+                    if (!committed) {
+                        try {
+                            connection.rollback();
+                        } catch (SQLException ignored) {
+                        }
+                    }
+                    try {
+                        connection.setAutoCommit(autoCommit);
+                    } catch (SQLException ignored) {
+                    }
+                }
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                }
+            }
+        }
+    }
+
+    private static final class Event {
+        final String entityName;
+        final Object entityId;
+        final long updatedMillis;
+
+        Event(String entityName, Object entityId, long updatedMillis) {
+            this.entityName = entityName;
+            this.entityId = entityId;
+            this.updatedMillis = updatedMillis;
+        }
+    }
+}
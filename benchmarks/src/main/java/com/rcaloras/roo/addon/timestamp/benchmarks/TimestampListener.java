@@ -0,0 +1,23 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Copy of the TimestampListener installed by {@code timestamp listener}.
+ */
+public class TimestampListener {
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate(Object entity) {
+        Timestamped timestamped = (Timestamped) entity;
+        long now = System.currentTimeMillis();
+        if (timestamped.getCreated() == null) {
+            timestamped.setCreated(new Date(now));
+        }
+        timestamped.setUpdated(new Date(now));
+    }
+}
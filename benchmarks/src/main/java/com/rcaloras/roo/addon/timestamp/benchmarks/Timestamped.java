@@ -0,0 +1,15 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+/**
+ * Copy of the Timestamped interface installed by {@code timestamp listener}.
+ */
+public interface Timestamped {
+
+    Date getCreated();
+
+    void setCreated(Date created);
+
+    void setUpdated(Date updated);
+}
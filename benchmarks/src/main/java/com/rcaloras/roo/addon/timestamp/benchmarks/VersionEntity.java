@@ -0,0 +1,45 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.Version;
+
+/**
+ * DATE storage with {@code version = true}: 'updated' is the optimistic-lock column the ORM seeds and advances itself,
+ * so the callback only fills 'created'. Both columns get the millisecond precision a version timestamp defaults to.
+ */
+@Entity
+public class VersionEntity extends SampleEntity {
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(columnDefinition = "TIMESTAMP(3)")
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(columnDefinition = "TIMESTAMP(3)")
+    @Version
+    private Date updated;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        long now = System.currentTimeMillis();
+        if (this.created == null) {
+            this.created = new java.util.Date(now);
+        }
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+}
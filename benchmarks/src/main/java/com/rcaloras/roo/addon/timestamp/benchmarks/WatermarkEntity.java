@@ -0,0 +1,65 @@
+package com.rcaloras.roo.addon.timestamp.benchmarks;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.Entity;
+import javax.persistence.PostPersist;
+import javax.persistence.PostUpdate;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * DATE storage with {@code watermark = true}: after every write the entity moves the per-type lastModified watermark
+ * forward with a compare-and-set loop. The lastModified() reader and its seeding query are left out, since only the
+ * write path is measured.
+ */
+@Entity
+public class WatermarkEntity extends SampleEntity {
+
+    private static final AtomicLong lastModifiedWatermark = new AtomicLong(-1L);
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date created;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updated;
+
+    @PrePersist
+    @PreUpdate
+    public void onUpdate() {
+        long now = System.currentTimeMillis();
+        if (this.created == null) {
+            this.created = new java.util.Date(now);
+        }
+        this.updated = new java.util.Date(now);
+    }
+
+    @PostPersist
+    @PostUpdate
+    public void advanceLastModified() {
+        long modified = this.updated == null ? System.currentTimeMillis() : this.updated.getTime();
+        long current = lastModifiedWatermark.get();
+        while (modified > current && !lastModifiedWatermark.compareAndSet(current, modified)) {
+            current = lastModifiedWatermark.get();
+        }
+    }
+
+    /**
+     * Invokes the post-write callback the way the JPA provider does, for the callback-only benchmarks
+     */
+    @Override
+    public void afterWrite() {
+        advanceLastModified();
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+}
@@ -0,0 +1,140 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.MethodMetadata;
+import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * Index of the methods a governor declares and inherits from its source superclasses, keyed on name and parameter
+ * types. It is built once per metadata build, so every "does the governor already have this method" check is a hash
+ * lookup instead of a scan of the governor's members. The index also remembers what it answered, so a later index can
+ * tell whether a build would see exactly the same methods.
+ *
+ * @since 1.1
+ */
+final class GovernorMemberIndex {
+
+    private static final char DECLARED = '=';
+    private static final char INHERITED = '^';
+
+    private final Map<String, MethodMetadata> declaredMethods = new HashMap<String, MethodMetadata>();
+    private final Map<String, MethodMetadata> inheritedMethods = new HashMap<String, MethodMetadata>();
+    private final List<String> superclassIds = new ArrayList<String>();
+    private final Map<String, String> answers = new HashMap<String, String>();
+
+    /**
+     * @param governor the governor's details (may be null, giving an empty index)
+     */
+    GovernorMemberIndex(ClassOrInterfaceTypeDetails governor) {
+        if (governor == null) {
+            return;
+        }
+        for (MethodMetadata method : governor.getDeclaredMethods()) {
+            declaredMethods.put(getKey(method), method);
+        }
+
+        // Private methods are not inherited, and a subclass declaration hides the superclass one
+        Set<JavaType> visited = new HashSet<JavaType>();
+        visited.add(governor.getName());
+        for (ClassOrInterfaceTypeDetails superclass = governor.getSuperclass(); superclass != null && visited.add(superclass.getName()); superclass = superclass
+                .getSuperclass()) {
+            superclassIds.add(superclass.getDeclaredByMetadataId());
+            for (MethodMetadata method : superclass.getDeclaredMethods()) {
+                String key = getKey(method);
+                if (!Modifier.isPrivate(method.getModifier()) && !inheritedMethods.containsKey(key)) {
+                    inheritedMethods.put(key, method);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the method the governor itself declares with this signature, or null
+     */
+    MethodMetadata getDeclaredMethod(JavaSymbolName methodName, List<JavaType> parameterTypes) {
+        return lookup(DECLARED, declaredMethods, getKey(methodName, parameterTypes));
+    }
+
+    /**
+     * @return true if the governor itself declares a method with this signature
+     */
+    boolean hasDeclaredMethod(JavaSymbolName methodName, JavaType... parameterTypes) {
+        return getDeclaredMethod(methodName, Arrays.asList(parameterTypes)) != null;
+    }
+
+    /**
+     * @return the nearest non-private method with this signature declared by a source superclass, or null
+     */
+    MethodMetadata getInheritedMethod(JavaSymbolName methodName, JavaType... parameterTypes) {
+        return lookup(INHERITED, inheritedMethods, getKey(methodName, Arrays.asList(parameterTypes)));
+    }
+
+    /**
+     * @return the physical type metadata ids of the indexed superclasses, nearest first (unmodifiable)
+     */
+    List<String> getSuperclassIds() {
+        return Collections.unmodifiableList(superclassIds);
+    }
+
+    /**
+     * @return what every lookup so far found, keyed by lookup (unmodifiable copy)
+     */
+    Map<String, String> getAnswers() {
+        return Collections.unmodifiableMap(new HashMap<String, String>(answers));
+    }
+
+    /**
+     * Replays the lookups of an earlier index against this one.
+     *
+     * @param previousAnswers the {@link #getAnswers()} of the earlier index (required)
+     * @return true if this index finds the same for every one of them
+     */
+    boolean answersAsBefore(Map<String, String> previousAnswers) {
+        for (Map.Entry<String, String> answer : previousAnswers.entrySet()) {
+            String lookup = answer.getKey();
+            Map<String, MethodMetadata> methods = lookup.charAt(0) == DECLARED ? declaredMethods : inheritedMethods;
+            if (!answer.getValue().equals(describe(methods.get(lookup.substring(1))))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MethodMetadata lookup(char kind, Map<String, MethodMetadata> methods, String key) {
+        MethodMetadata method = methods.get(key);
+        answers.put(kind + key, describe(method));
+        return method;
+    }
+
+    // Existence, modifiers and return type are all a build reads from a method it finds
+    private static String describe(MethodMetadata method) {
+        return method == null ? "" : method.getModifier() + " " + method.getReturnType().getNameIncludingTypeParameters();
+    }
+
+    private static String getKey(MethodMetadata method) {
+        return getKey(method.getMethodName(), AnnotatedJavaType.convertFromAnnotatedJavaTypes(method.getParameterTypes()));
+    }
+
+    private static String getKey(JavaSymbolName methodName, List<JavaType> parameterTypes) {
+        StringBuilder key = new StringBuilder(methodName.getSymbolName()).append('(');
+        for (int i = 0; i < parameterTypes.size(); i++) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(parameterTypes.get(i).getNameIncludingTypeParameters());
+        }
+        return key.append(')').toString();
+    }
+}
@@ -13,5 +13,167 @@ import java.lang.annotation.Target;
 @Target(ElementType.TYPE)
 @Retention(RetentionPolicy.SOURCE)
 public @interface RooTimestamp {
-}
 
+    /**
+     * The Java type of the generated 'created' and 'updated' fields: DATE (java.util.Date), INSTANT
+     * (java.time.Instant), LOCAL_DATE_TIME (java.time.LocalDateTime) or EPOCH_MILLIS (a primitive long). The
+     * java.time types require JPA 2.2 or an attribute converter.
+     */
+    String storage() default "DATE";
+
+    /**
+     * Whether to generate the 'created' field. Append-only tables can drop 'updated' instead, and vice versa.
+     */
+    boolean created() default true;
+
+    /**
+     * Whether to generate the 'updated' field; required by version, history, changeFeed, touch, httpValidators and
+     * watermark
+     */
+    boolean updated() default true;
+
+    /**
+     * The name of the generated 'created' field and its accessors
+     */
+    String createdField() default "created";
+
+    /**
+     * The name of the generated 'updated' field and its accessors
+     */
+    String updatedField() default "updated";
+
+    /**
+     * The column the 'created' field maps to; empty (default) leaves it to the JPA provider
+     */
+    String createdColumn() default "";
+
+    /**
+     * The column the 'updated' field maps to; empty (default) leaves it to the JPA provider
+     */
+    String updatedColumn() default "";
+
+    /**
+     * Fractional second digits of the timestamp columns, declared as TIMESTAMP(precision); negative (default) keeps
+     * the database's default, or 3 when version is set. Not available with EPOCH_MILLIS storage.
+     */
+    int precision() default -1;
+
+    /**
+     * The @DateTimeFormat pattern of DATE and LOCAL_DATE_TIME fields
+     */
+    String dateTimePattern() default "yyyy-MM-dd HH:mm:ss";
+
+    /**
+     * The type whose static {@code long currentTimeMillis()} method supplies the time to the generated callback. The
+     * callback reads it once per invocation. Use {@code timestamp clock} to install a clock with coarse,
+     * per-transaction and fixed modes. Not available with a listener, which reads the system clock.
+     */
+    Class<?> clock() default System.class;
+
+    /**
+     * Who maintains the timestamps: JVM (default) generates a @PrePersist/@PreUpdate callback, DATABASE maps both
+     * fields as read-only, database-defaulted columns (Hibernate @Generated) and omits the callback, so bulk JPQL and
+     * native statements keep correct values. With DATABASE, 'updated' needs an update trigger (or MySQL's ON UPDATE
+     * CURRENT_TIMESTAMP) to change on update.
+     */
+    String source() default "JVM";
+
+    /**
+     * Adds an indexed int 'createdBucket' column derived from 'created' for range partitioning: NONE (default), HOUR
+     * (yyyyMMddHH), DAY (yyyyMMdd) or MONTH (yyyyMM), in UTC except for LOCAL_DATE_TIME, which uses the stored wall time. The generated callback keeps it in step with 'created',
+     * and @RooJpaActiveRecord entities get a findByCreatedBetween(from, to) that filters on the bucket first. Not
+     * available with DATABASE source or a listener.
+     */
+    String bucket() default "NONE";
+
+    /**
+     * Whether 'updated' doubles as the optimistic lock @Version column, so the entity needs no separate version
+     * column. The ORM then maintains 'updated' and the callback only sets 'created'. The entity's
+     * @RooJpaActiveRecord or @RooJpaEntity must declare versionField = "" ('timestamp add --version' does this).
+     * The columns default to TIMESTAMP(3) and any explicit precision must be at least 3, since a truncated version
+     * never matches. Not available with EPOCH_MILLIS storage, DATABASE source or a listener.
+     */
+    boolean version() default false;
+
+    /**
+     * Whether to introduce a static setTimestampImport(boolean) for bulk loads. While it is on for the current
+     * thread, the generated callback keeps the 'created' and 'updated' values the caller supplied and only fills in
+     * missing ones, returning before it reads the clock when both are set. Always switch it off in a finally block.
+     * Not available with DATABASE source or a listener.
+     */
+    boolean importMode() default false;
+
+    /**
+     * A shared JPA entity listener installed with {@code timestamp listener}. When set, the ITD makes the entity
+     * implement the listener's Timestamped interface and registers the listener with @EntityListeners instead of
+     * introducing its own onUpdate callback. Requires DATE storage and the system clock; entities that already declare
+     * @EntityListeners keep the generated callback.
+     */
+    Class<?> listener() default void.class;
+
+    /**
+     * A TimestampHistoryWriter installed with {@code timestamp history}. When set, the ITD introduces a
+     * post-persist/post-update callback that queues the entity's name, identifier and 'updated' time on the writer,
+     * which appends them to the timestamp_history table from a background thread with JDBC batches.
+     */
+    Class<?> history() default void.class;
+
+    /**
+     * Whether to index the 'created' column (Hibernate @Index)
+     */
+    boolean indexCreated() default false;
+
+    /**
+     * Whether to index the 'updated' column (Hibernate @Index), for "changed since" queries
+     */
+    boolean indexUpdated() default false;
+
+    /**
+     * Whether to declare a composite (updated, id) index through JPA 2.1 @Table(indexes = ...). Ignored if the
+     * entity already maps its table with @Table or a Roo 'table', 'schema' or 'catalog' attribute. Without an
+     * updatedColumn, the 'updated' field is mapped to @Column(name) of its field name, the name the index uses.
+     */
+    boolean indexUpdatedWithId() default false;
+
+    /**
+     * Whether to introduce a static streamUpdatedSince(since, afterId) change feed on @RooJpaActiveRecord entities.
+     * It iterates over entities changed after the (updated, id) cursor using keyset pagination, and clears the
+     * persistence context between pages, never before the first. A null since (0 with EPOCH_MILLIS storage) starts
+     * from the beginning.
+     */
+    boolean changeFeed() default false;
+
+    /**
+     * Whether to introduce a static touch(ids) on @RooJpaActiveRecord entities. It sets 'updated' (and a missing
+     * 'created') with chunked bulk UPDATE statements, returns the affected row count and never loads the entities.
+     */
+    boolean touch() default false;
+
+    /**
+     * Whether to introduce HTTP validators based on 'updated': lastModifiedMillis() and weakETag() on the entity, a
+     * static weakETag(id, lastModifiedMillis) and, on @RooJpaActiveRecord entities, a static
+     * findLastModifiedMillis(id) that reads only the 'updated' column, so a controller can answer a conditional GET
+     * with 304 before loading the entity.
+     */
+    boolean httpValidators() default false;
+
+    /**
+     * Whether to introduce a static purgeCreatedBefore(cutoff, afterId, pauseMillis) on @RooJpaActiveRecord entities
+     * with a Long or Integer identifier. It deletes the entities created before the cutoff in id ranges of batchSize
+     * rows, each in its own transaction, and returns {deleted, lastId} so an interrupted purge can be resumed.
+     */
+    boolean purge() default false;
+
+    /**
+     * Whether to introduce a static lastModified() on @RooJpaActiveRecord entities: the latest 'updated' of the entity
+     * type in epoch milliseconds, or -1 if there is none. It is served from an in-process watermark that the
+     * post-persist/post-update callback advances and a MAX('updated') query seeds on first use, so it only reflects
+     * other processes' writes as of that query.
+     */
+    boolean watermark() default false;
+
+    /**
+     * The page or chunk size used by the generated bulk and paging methods
+     */
+    int batchSize() default 1000;
+}
@@ -0,0 +1,108 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.project.Dependency;
+import org.springframework.roo.project.DependencyScope;
+import org.springframework.roo.project.DependencyType;
+import org.springframework.roo.project.Repository;
+import org.springframework.roo.support.util.XmlUtils;
+import org.w3c.dom.Element;
+
+/**
+ * Describes what 'timestamp setup' installs into a project: the add-on's own dependency, the repository it is
+ * published to and the dependencies listed in configuration.xml. The bundled project.properties and configuration.xml
+ * never change while the bundle is installed, so they are read once, on first use, rather than when the bundle starts
+ * or on every command.
+ *
+ * @since 1.1
+ */
+final class TimestampAddonDescriptor {
+
+    private static final Repository SNAPSHOT_REPOSITORY = new Repository("roo-timestamp-addon-snapshots", "Timestamp Roo add-on snapshot repository",
+            "https://raw.github.com/rcaloras/rcaloras-mvn-repo/master/snapshots");
+
+    private static final Repository RELEASE_REPOSITORY = new Repository("roo-timestamp-addon-releases", "Timestamp Roo add-on release repository",
+            "https://raw.github.com/rcaloras/rcaloras-mvn-repo/master/releases");
+
+    /**
+     * Initialization-on-demand holder, so the resources are parsed by the first command that needs them
+     */
+    private static final class Holder {
+        static final TimestampAddonDescriptor INSTANCE = new TimestampAddonDescriptor();
+    }
+
+    private final String version;
+    private final Dependency addonDependency;
+    private final List<Dependency> configuredDependencies;
+
+    /**
+     * @return the descriptor of this bundle (never null)
+     */
+    static TimestampAddonDescriptor getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private TimestampAddonDescriptor() {
+        version = readVersion();
+        addonDependency = new Dependency("com.rcaloras.roo.addon.timestamp", "com.rcaloras.roo.addon.timestamp", version, DependencyType.JAR,
+                DependencyScope.PROVIDED);
+
+        List<Dependency> dependencies = new ArrayList<Dependency>();
+        for (Element dependencyElement : XmlUtils.findElements("/configuration/batch/dependencies/dependency",
+                XmlUtils.getConfiguration(TimestampAddonDescriptor.class))) {
+            dependencies.add(new Dependency(dependencyElement));
+        }
+        configuredDependencies = Collections.unmodifiableList(dependencies);
+    }
+
+    private static String readVersion() {
+        InputStream inputStream = TimestampAddonDescriptor.class.getResourceAsStream("/project.properties");
+        Validate.notNull(inputStream, "project.properties is missing from the add-on bundle");
+        Properties properties = new Properties();
+        try {
+            properties.load(inputStream);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read project.properties from the add-on bundle", e);
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
+            }
+        }
+        String version = properties.getProperty("version");
+        Validate.notBlank(version, "project.properties does not declare the add-on version");
+        return version;
+    }
+
+    String getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the repository matching this build, snapshots or releases
+     */
+    Repository getRepository() {
+        return version.toLowerCase().contains("snapshot") ? SNAPSHOT_REPOSITORY : RELEASE_REPOSITORY;
+    }
+
+    /**
+     * @return the provided-scope dependency on the add-on jar, which carries {@link RooTimestamp}
+     */
+    Dependency getAddonDependency() {
+        return addonDependency;
+    }
+
+    /**
+     * @return the dependencies listed in configuration.xml (unmodifiable)
+     */
+    List<Dependency> getConfiguredDependencies() {
+        return configuredDependencies;
+    }
+}
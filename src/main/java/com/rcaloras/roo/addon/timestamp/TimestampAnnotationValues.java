@@ -0,0 +1,218 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.Validate;
+import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.annotations.populator.AbstractAnnotationValues;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulate;
+import org.springframework.roo.classpath.details.annotations.populator.AutoPopulationUtils;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * The values of a {@link RooTimestamp} annotation on a governor.
+ *
+ * @since 1.1
+ */
+public class TimestampAnnotationValues extends AbstractAnnotationValues {
+
+    static final JavaType ROO_TIMESTAMP = new JavaType(RooTimestamp.class.getName());
+
+    // A @Version timestamp compared against a truncated column never matches, so it needs at least milliseconds
+    static final int VERSION_PRECISION = 3;
+
+    @AutoPopulate private String storage = "DATE";
+    @AutoPopulate private boolean created = true;
+    @AutoPopulate private boolean updated = true;
+    @AutoPopulate private String createdField = "created";
+    @AutoPopulate private String updatedField = "updated";
+    @AutoPopulate private String createdColumn = "";
+    @AutoPopulate private String updatedColumn = "";
+    @AutoPopulate private int precision = -1;
+    @AutoPopulate private String dateTimePattern = "yyyy-MM-dd HH:mm:ss";
+    @AutoPopulate private JavaType clock;
+    @AutoPopulate private String source = "JVM";
+    @AutoPopulate private boolean indexCreated;
+    @AutoPopulate private boolean indexUpdated;
+    @AutoPopulate private boolean indexUpdatedWithId;
+    @AutoPopulate private String bucket = "NONE";
+    @AutoPopulate private boolean version;
+    @AutoPopulate private boolean importMode;
+    @AutoPopulate private JavaType listener;
+    @AutoPopulate private JavaType history;
+    @AutoPopulate private boolean changeFeed;
+    @AutoPopulate private boolean touch;
+    @AutoPopulate private boolean httpValidators;
+    @AutoPopulate private boolean purge;
+    @AutoPopulate private boolean watermark;
+    @AutoPopulate private int batchSize = 1000;
+
+    /**
+     * Constructor
+     *
+     * @param governorPhysicalTypeMetadata the metadata of the type annotated with {@link RooTimestamp} (required)
+     */
+    public TimestampAnnotationValues(PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+        super(governorPhysicalTypeMetadata, ROO_TIMESTAMP);
+        AutoPopulationUtils.populate(this, annotationMetadata);
+        Validate.isTrue(created || updated, "@RooTimestamp must generate at least one of created and updated");
+        JavaSymbolName.assertJavaNameLegal(createdField);
+        JavaSymbolName.assertJavaNameLegal(updatedField);
+        Validate.isTrue(!createdField.equals(updatedField), "@RooTimestamp createdField and updatedField must differ");
+        Validate.isTrue(precision < 0 || !getStorage().isPrimitive(), "@RooTimestamp precision cannot be combined with EPOCH_MILLIS storage");
+        Validate.isTrue(!version || precision < 0 || precision >= VERSION_PRECISION,
+                "@RooTimestamp(version = true) needs a precision of at least " + VERSION_PRECISION + ", or the stored version is truncated and optimistic locking fails");
+        Validate.isTrue(updated || !(version || changeFeed || touch || httpValidators || watermark || getHistory() != null),
+                "@RooTimestamp version, history, changeFeed, touch, httpValidators and watermark need the updated field");
+        Validate.isTrue(created || (getBucket() == null && !indexCreated && !purge), "@RooTimestamp bucket, indexCreated and purge need the created field");
+        Validate.isTrue(updated || (!indexUpdated && !indexUpdatedWithId), "@RooTimestamp indexUpdated and indexUpdatedWithId need the updated field");
+        Validate.isTrue(getListener() == null || (created && updated && "created".equals(createdField) && "updated".equals(updatedField)),
+                "@RooTimestamp listener relies on the Timestamped interface, so it needs both fields with their default names");
+        Validate.isTrue("JVM".equalsIgnoreCase(source) || "DATABASE".equalsIgnoreCase(source), "Unsupported @RooTimestamp source '" + source + "'; expected JVM or DATABASE");
+        Validate.isTrue(getListener() == null || getStorage() == TimestampStorage.DATE, "@RooTimestamp listener requires DATE storage");
+        Validate.isTrue(getListener() == null || getClock() == null,
+                "@RooTimestamp listener reads the system clock, so it cannot be combined with clock");
+        Validate.isTrue(!version || (!getStorage().isPrimitive() && !isDatabaseGenerated() && getListener() == null),
+                "@RooTimestamp(version = true) cannot be combined with EPOCH_MILLIS storage, DATABASE source or a listener");
+        Validate.isTrue(getBucket() == null || (!isDatabaseGenerated() && getListener() == null),
+                "@RooTimestamp bucket is filled by the generated callback, so it cannot be combined with DATABASE source or a listener");
+        Validate.isTrue(!importMode || (!isDatabaseGenerated() && getListener() == null),
+                "@RooTimestamp importMode switches the generated callback, so it cannot be combined with DATABASE source or a listener");
+        Validate.isTrue(batchSize > 0, "@RooTimestamp batchSize must be positive");
+        Validate.isTrue(!isDatabaseGenerated() || !getStorage().isPrimitive(), "@RooTimestamp(source = \"DATABASE\") cannot be combined with EPOCH_MILLIS storage");
+    }
+
+    TimestampStorage getStorage() {
+        return TimestampStorage.fromAttribute(storage);
+    }
+
+    String getDateTimePattern() {
+        return dateTimePattern;
+    }
+
+    /**
+     * @return the name of the 'created' field, or null if it is not generated
+     */
+    JavaSymbolName getCreatedField() {
+        return created ? new JavaSymbolName(createdField) : null;
+    }
+
+    /**
+     * @return the name of the 'updated' field, or null if it is not generated
+     */
+    JavaSymbolName getUpdatedField() {
+        return updated ? new JavaSymbolName(updatedField) : null;
+    }
+
+    /**
+     * @return the column name of the 'created' field, or null for the provider's default
+     */
+    String getCreatedColumn() {
+        return StringUtils.isBlank(createdColumn) ? null : createdColumn.trim();
+    }
+
+    /**
+     * @return the column name of the 'updated' field, or null for the provider's default; the composite (updated, id)
+     *         index has to name the column, so with indexUpdatedWithId it defaults to the field name and is always
+     *         mapped explicitly
+     */
+    String getUpdatedColumn() {
+        if (StringUtils.isBlank(updatedColumn)) {
+            return indexUpdatedWithId && updated ? updatedField : null;
+        }
+        return updatedColumn.trim();
+    }
+
+    /**
+     * @return the fractional second digits of the columns, or a negative value for the database default; a version
+     *         column defaults to milliseconds, since a plain TIMESTAMP is whole seconds on some databases (MySQL)
+     */
+    int getPrecision() {
+        return version && precision < 0 ? VERSION_PRECISION : precision;
+    }
+
+    /**
+     * @return true if the database rather than a Java callback maintains the timestamps
+     */
+    boolean isDatabaseGenerated() {
+        return "DATABASE".equalsIgnoreCase(source);
+    }
+
+    /**
+     * @return the clock type, or null if the system clock should be used
+     */
+    JavaType getClock() {
+        return clock == null || "java.lang.System".equals(clock.getFullyQualifiedTypeName()) ? null : clock;
+    }
+
+    boolean isIndexCreated() {
+        return indexCreated;
+    }
+
+    boolean isIndexUpdated() {
+        return indexUpdated;
+    }
+
+    boolean isIndexUpdatedWithId() {
+        return indexUpdatedWithId;
+    }
+
+    /**
+     * @return the granularity of the derived 'createdBucket' column, or null if there is none
+     */
+    TimestampBucket getBucket() {
+        return TimestampBucket.fromAttribute(bucket);
+    }
+
+    /**
+     * @return true if 'updated' doubles as the optimistic lock @Version column
+     */
+    boolean isVersion() {
+        return version;
+    }
+
+    /**
+     * @return true if the ITD introduces a per-thread switch that keeps supplied timestamps
+     */
+    boolean isImportMode() {
+        return importMode;
+    }
+
+    /**
+     * @return the shared entity listener type, or null if the ITD should introduce its own callback
+     */
+    JavaType getListener() {
+        return listener == null || JavaType.VOID_PRIMITIVE.getFullyQualifiedTypeName().equals(listener.getFullyQualifiedTypeName()) ? null : listener;
+    }
+
+    /**
+     * @return the history writer type, or null if no change history is recorded
+     */
+    JavaType getHistory() {
+        return history == null || JavaType.VOID_PRIMITIVE.getFullyQualifiedTypeName().equals(history.getFullyQualifiedTypeName()) ? null : history;
+    }
+
+    boolean isChangeFeed() {
+        return changeFeed;
+    }
+
+    boolean isTouch() {
+        return touch;
+    }
+
+    boolean isHttpValidators() {
+        return httpValidators;
+    }
+
+    boolean isPurge() {
+        return purge;
+    }
+
+    boolean isWatermark() {
+        return watermark;
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+}
@@ -0,0 +1,129 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+
+/**
+ * The granularities of the derived 'createdBucket' column, selected with {@link RooTimestamp#bucket()}. A bucket is
+ * the UTC calendar value of 'created' (the stored wall time for LOCAL_DATE_TIME) written as digits, e.g. 20240131 for
+ * DAY, so it sorts like the timestamp and lines up with range partitions on the column.
+ *
+ * @since 1.1
+ */
+enum TimestampBucket {
+
+    /**
+     * yyyyMMddHH
+     */
+    HOUR("%1$s * 1000000 + %2$s * 10000 + %3$s * 100 + %4$s"),
+
+    /**
+     * yyyyMMdd
+     */
+    DAY("%1$s * 10000 + %2$s * 100 + %3$s"),
+
+    /**
+     * yyyyMM
+     */
+    MONTH("%1$s * 100 + %2$s");
+
+    /**
+     * Name of the static helper the ITD introduces to convert epoch milliseconds to a bucket
+     */
+    static final String HELPER_METHOD = "toCreatedBucket";
+
+    private final String format;
+
+    private TimestampBucket(String format) {
+        this.format = format;
+    }
+
+    /**
+     * @return a Java int expression combining the given year, month (1-12), day and hour expressions
+     */
+    String getExpression(String year, String month, String day, String hour) {
+        return String.format(format, year, month, day, hour);
+    }
+
+    /**
+     * @param coarser a granularity no finer than this one (required)
+     * @return the divisor that rolls a bucket of this granularity up to the coarser one, e.g. 100 from HOUR to DAY
+     */
+    int getRollUpDivisor(TimestampBucket coarser) {
+        int divisor = 1;
+        for (int i = ordinal(); i < coarser.ordinal(); i++) {
+            divisor *= 100;
+        }
+        return divisor;
+    }
+
+    /**
+     * @param storage the storage of 'created' (required)
+     * @param value a Java expression of the storage's field type (not null)
+     * @return a Java int expression for the bucket of the value; it allocates nothing
+     */
+    String getBucketOf(TimestampStorage storage, String value) {
+        switch (storage) {
+        case DATE:
+            return HELPER_METHOD + "(" + value + ".getTime())";
+        case INSTANT:
+            return HELPER_METHOD + "(" + value + ".toEpochMilli())";
+        case LOCAL_DATE_TIME:
+            // A LocalDateTime is persisted as its wall time, so its fields are the bucket
+            return getExpression(value + ".getYear()", value + ".getMonthValue()", value + ".getDayOfMonth()", value + ".getHour()");
+        default:
+            return HELPER_METHOD + "(" + value + ")";
+        }
+    }
+
+    /**
+     * @param storage the storage of 'created' (required)
+     * @return true if {@link #getBucketOf} calls the {@link #HELPER_METHOD} for the storage
+     */
+    boolean needsHelper(TimestampStorage storage) {
+        return storage != TimestampStorage.LOCAL_DATE_TIME;
+    }
+
+    /**
+     * Returns the body of the static {@link #HELPER_METHOD}(long epochMillis). It converts days since the epoch to a
+     * UTC civil date with integer arithmetic only, so it neither allocates nor depends on the default time zone.
+     */
+    String getHelperBody() {
+        InvocableMemberBodyBuilder body = new InvocableMemberBodyBuilder();
+        body.appendFormalLine("long days = epochMillis / 86400000L;");
+        body.appendFormalLine("long millisOfDay = epochMillis % 86400000L;");
+        body.appendFormalLine("if (millisOfDay < 0) {");
+        body.appendFormalLine("    days--;");
+        body.appendFormalLine("    millisOfDay += 86400000L;");
+        body.appendFormalLine("}");
+        body.appendFormalLine("// Civil date from days, counted in 400-year eras starting on March 1st");
+        body.appendFormalLine("long z = days + 719468L;");
+        body.appendFormalLine("long era = (z >= 0 ? z : z - 146096L) / 146097L;");
+        body.appendFormalLine("long dayOfEra = z - era * 146097L;");
+        body.appendFormalLine("long yearOfEra = (dayOfEra - dayOfEra / 1460L + dayOfEra / 36524L - dayOfEra / 146096L) / 365L;");
+        body.appendFormalLine("long dayOfYear = dayOfEra - (365L * yearOfEra + yearOfEra / 4L - yearOfEra / 100L);");
+        body.appendFormalLine("long shiftedMonth = (5L * dayOfYear + 2L) / 153L;");
+        body.appendFormalLine("int day = (int) (dayOfYear - (153L * shiftedMonth + 2L) / 5L + 1L);");
+        body.appendFormalLine("int month = (int) (shiftedMonth < 10L ? shiftedMonth + 3L : shiftedMonth - 9L);");
+        body.appendFormalLine("int year = (int) (yearOfEra + era * 400L + (month <= 2 ? 1L : 0L));");
+        body.appendFormalLine("int hour = (int) (millisOfDay / 3600000L);");
+        body.appendFormalLine("return " + getExpression("year", "month", "day", "hour") + ";");
+        return body.getOutput();
+    }
+
+    /**
+     * Parses the value of {@link RooTimestamp#bucket()}.
+     *
+     * @param bucket the attribute value (case insensitive)
+     * @return the bucket granularity, or null for NONE or an empty value
+     */
+    static TimestampBucket fromAttribute(String bucket) {
+        if (bucket == null || bucket.length() == 0 || "NONE".equalsIgnoreCase(bucket.trim())) {
+            return null;
+        }
+        try {
+            return valueOf(bucket.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported @RooTimestamp bucket '" + bucket + "'; expected one of NONE, HOUR, DAY, MONTH", e);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.rcaloras.roo.addon.timestamp;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
+import org.springframework.roo.model.JavaPackage;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.shell.CliAvailabilityIndicator;
 import org.springframework.roo.shell.CliCommand;
@@ -27,6 +28,11 @@ public class TimestampCommands implements CommandMarker { // All command types m
      */
     @Reference private TimestampOperations operations;
     
+    /**
+     * Get a reference to the TimestampStatistics recorded by the provider and operations
+     */
+    @Reference private TimestampStatistics statistics;
+    
     /**
      * This method is optional. It allows automatic command hiding in situations when the command should not be visible.
      * For example the 'entity' command will not be made available before the user has defined his persistence settings 
@@ -37,14 +43,23 @@ public class TimestampCommands implements CommandMarker { // All command types m
      * 
      * @return true (default) if the command should be visible at this stage, false otherwise
      */
-    @CliAvailabilityIndicator({ "timestamp setup", "timestamp add", "timestamp all" })
+    @CliAvailabilityIndicator({ "timestamp setup", "timestamp add", "timestamp all", "timestamp clock", "timestamp listener", "timestamp history" })
     public boolean isCommandAvailable() {
         return operations.isCommandAvailable();
     }
     
     @CliCommand(value = "timestamp add", help = "Adds @RooTimestamp to target type")
-    public void add(@CliOption(key = "type", mandatory = true, help = "The java type to apply this annotation to") JavaType target) {
-        operations.annotateType(target);
+    public void add(@CliOption(key = "type", mandatory = true, help = "The java type to apply this annotation to") JavaType target,
+            @CliOption(key = "version", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Use 'updated' as the optimistic lock @Version column") boolean version,
+            @CliOption(key = "created", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "true", help = "Whether to generate the 'created' field") boolean created,
+            @CliOption(key = "updated", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "true", help = "Whether to generate the 'updated' field") boolean updated,
+            @CliOption(key = "createdField", mandatory = false, help = "The name of the 'created' field; defaults to 'created'") String createdField,
+            @CliOption(key = "updatedField", mandatory = false, help = "The name of the 'updated' field; defaults to 'updated'") String updatedField,
+            @CliOption(key = "createdColumn", mandatory = false, help = "The column of the 'created' field; defaults to the JPA provider's naming") String createdColumn,
+            @CliOption(key = "updatedColumn", mandatory = false, help = "The column of the 'updated' field; defaults to the JPA provider's naming") String updatedColumn,
+            @CliOption(key = "precision", mandatory = false, help = "Fractional second digits of the timestamp columns; defaults to the database's") Integer precision,
+            @CliOption(key = "pattern", mandatory = false, help = "The @DateTimeFormat pattern; defaults to yyyy-MM-dd HH:mm:ss") String pattern) {
+        operations.annotateType(target, version, created, updated, createdField, updatedField, createdColumn, updatedColumn, precision, pattern);
     }
     
     @CliCommand(value = "timestamp all", help = "Adds @RooTimestamp to all types annotated with @RooJavaBean" )
@@ -52,6 +67,26 @@ public class TimestampCommands implements CommandMarker { // All command types m
         operations.annotateAll();
     }
     
+    @CliCommand(value = "timestamp clock", help = "Installs a TimestampClock class for use with @RooTimestamp(clock = ...)")
+    public void clock(@CliOption(key = "package", mandatory = true, help = "The package to create the clock in") JavaPackage javaPackage) {
+        operations.installClock(javaPackage);
+    }
+    
+    @CliCommand(value = "timestamp listener", help = "Installs a shared TimestampListener for use with @RooTimestamp(listener = ...)")
+    public void listener(@CliOption(key = "package", mandatory = true, help = "The package to create the listener in") JavaPackage javaPackage) {
+        operations.installListener(javaPackage);
+    }
+    
+    @CliCommand(value = "timestamp history", help = "Installs an asynchronous TimestampHistoryWriter for use with @RooTimestamp(history = ...)")
+    public void history(@CliOption(key = "package", mandatory = true, help = "The package to create the writer in") JavaPackage javaPackage) {
+        operations.installHistory(javaPackage);
+    }
+    
+    @CliCommand(value = "timestamp stats", help = "Shows what the Timestamp add-on has cost in this shell session")
+    public String stats(@CliOption(key = "json", mandatory = false, specifiedDefaultValue = "true", unspecifiedDefaultValue = "false", help = "Print the statistics as JSON") boolean json) {
+        return statistics.getReport(json);
+    }
+    
     @CliCommand(value = "timestamp setup", help = "Setup Timestamp addon")
     public void setup() {
         operations.setup();
@@ -0,0 +1,39 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import java.io.File;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.springframework.roo.file.monitor.event.FileEvent;
+import org.springframework.roo.file.monitor.event.FileEventListener;
+import org.springframework.roo.file.monitor.event.FileOperation;
+
+/**
+ * Counts the *_Roo_Timestamp.aj files Roo writes and deletes on behalf of {@link TimestampMetadataProvider}. The
+ * provider only hands Roo the ITD's members, so the file events are the one place the writes can be observed.
+ *
+ * @since 1.1
+ */
+@Component
+@Service
+public class TimestampItdWriteListener implements FileEventListener {
+
+    private static final String ITD_SUFFIX = "_Roo_Timestamp.aj";
+
+    @Reference private TimestampStatistics statistics;
+
+    public void onFileEvent(FileEvent fileEvent) {
+        File file = fileEvent.getFileDetails().getFile();
+        if (!file.getName().endsWith(ITD_SUFFIX)) {
+            return;
+        }
+        // MONITORING_START reports the files already on disk when the shell starts, which were not written now
+        FileOperation operation = fileEvent.getOperation();
+        if (operation == FileOperation.CREATED || operation == FileOperation.UPDATED) {
+            statistics.recordItdWrite(file.length());
+        } else if (operation == FileOperation.DELETED) {
+            statistics.recordItdDelete();
+        }
+    }
+}
@@ -3,7 +3,9 @@ package com.rcaloras.roo.addon.timestamp;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.commons.lang3.builder.ToStringBuilder;
@@ -13,13 +15,19 @@ import org.springframework.roo.classpath.details.BeanInfoUtils;
 import org.springframework.roo.classpath.details.FieldMetadata;
 import org.springframework.roo.classpath.details.FieldMetadataBuilder;
 import org.springframework.roo.classpath.details.ItdTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.MemberFindingUtils;
 import org.springframework.roo.classpath.details.MethodMetadata;
 import org.springframework.roo.classpath.details.MethodMetadataBuilder;
 import org.springframework.roo.classpath.details.annotations.AnnotatedJavaType;
+import org.springframework.roo.classpath.details.annotations.AnnotationAttributeValue;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.ArrayAttributeValue;
+import org.springframework.roo.classpath.details.annotations.NestedAnnotationAttributeValue;
 import org.springframework.roo.classpath.itd.AbstractItdTypeDetailsProvidingMetadataItem;
 import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
 import org.springframework.roo.metadata.MetadataIdentificationUtils;
+import org.springframework.roo.model.DataType;
 import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.project.LogicalPath;
@@ -36,8 +44,32 @@ public class TimestampMetadata extends AbstractItdTypeDetailsProvidingMetadataIt
     private static final String PROVIDES_TYPE_STRING = TimestampMetadata.class.getName();
     private static final String PROVIDES_TYPE = MetadataIdentificationUtils.create(PROVIDES_TYPE_STRING);
 
-    private static final String CREATED_FIELD="created";
-	private static final String UPDATED_FIELD="updated";
+    private static final JavaType HIBERNATE_INDEX = new JavaType("org.hibernate.annotations.Index");
+    private static final JavaType JPA_COLUMN = new JavaType("javax.persistence.Column");
+    private static final JavaType JPA_INDEX = new JavaType("javax.persistence.Index");
+    private static final JavaType JPA_TABLE = new JavaType("javax.persistence.Table");
+    private static final JavaType COLLECTION = new JavaType("java.util.Collection");
+    private static final JavaType ENTITY_LISTENERS = new JavaType("javax.persistence.EntityListeners");
+    private static final JavaType ITERATOR = new JavaType("java.util.Iterator");
+    private static final JavaType THREAD_LOCAL = new JavaType("java.lang.ThreadLocal");
+    private static final JavaType TYPED_QUERY = new JavaType("javax.persistence.TypedQuery");
+    private static final JavaType POST_PERSIST = new JavaType("javax.persistence.PostPersist");
+    private static final JavaType POST_UPDATE = new JavaType("javax.persistence.PostUpdate");
+    private static final JavaType ATOMIC_LONG = new JavaType("java.util.concurrent.atomic.AtomicLong");
+    private static final JavaType TRANSACTIONAL = new JavaType("org.springframework.transaction.annotation.Transactional");
+    private static final JavaType ROO_JPA_ACTIVE_RECORD = new JavaType("org.springframework.roo.addon.jpa.activerecord.RooJpaActiveRecord");
+    private static final List<JavaType> ROO_JPA_ANNOTATIONS = Arrays.asList(new JavaType("org.springframework.roo.addon.jpa.activerecord.RooJpaActiveRecord"),
+            new JavaType("org.springframework.roo.addon.jpa.entity.RooJpaEntity"));
+
+    private static final JavaSymbolName WATERMARK_FIELD = new JavaSymbolName("lastModifiedWatermark");
+    private static final JavaSymbolName WATERMARK_SEEDED_FIELD = new JavaSymbolName("lastModifiedSeeded");
+
+    // Lookup of the governor's declared and inherited methods, shared by every existence check below; only needed
+    // while the ITD is built, so it is released before the metadata is cached
+    private GovernorMemberIndex members;
+
+    // Timestamp fields a source superclass owns through its accessor pair; the ITD reads and writes them through it
+    private final Set<JavaSymbolName> inheritedFields = new HashSet<JavaSymbolName>();
 
     public static final String getMetadataIdentiferType() {
         return PROVIDES_TYPE;
@@ -59,106 +91,926 @@ public class TimestampMetadata extends AbstractItdTypeDetailsProvidingMetadataIt
         return PhysicalTypeIdentifierNamingUtils.isValid(PROVIDES_TYPE_STRING, metadataIdentificationString);
     }
 
-    public TimestampMetadata(String identifier, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+    public TimestampMetadata(String identifier, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata, TimestampAnnotationValues annotationValues, FieldMetadata identifierField,
+            GovernorMemberIndex members) {
         super(identifier, aspectName, governorPhysicalTypeMetadata);
         Validate.isTrue(isValid(identifier), "Metadata identification string '" + identifier + "' does not appear to be a valid");
+        Validate.notNull(annotationValues, "Annotation values required");
+        Validate.notNull(members, "Governor member index required");
+        this.members = members;
 
-        FieldMetadata createdField = getTimestampField(CREATED_FIELD);
-        FieldMetadata updatedField = getTimestampField(UPDATED_FIELD);
-        builder.addField(createdField);
-		builder.addField(updatedField);
+        Validate.isTrue(!annotationValues.isVersion() || !hasRooVersionField(), "@RooTimestamp(version = true) on " + destination.getFullyQualifiedTypeName()
+                + " needs versionField = \"\" on its @RooJpaActiveRecord or @RooJpaEntity; use 'timestamp add --version' to set both");
 
-        // Adding a new sample method definition
-		builder.addMethod(getTimestampMethod());
+        // A superclass declaring the accessor pair already maps the field, so the ITD must neither redeclare nor annotate it
+        boolean columnSettings = annotationValues.getPrecision() >= 0 || annotationValues.isDatabaseGenerated();
+        boolean createdInherited = isInherited(annotationValues.getCreatedField(), annotationValues,
+                columnSettings || annotationValues.getCreatedColumn() != null || annotationValues.isIndexCreated());
+        boolean updatedInherited = isInherited(annotationValues.getUpdatedField(), annotationValues,
+                columnSettings || annotationValues.getUpdatedColumn() != null || annotationValues.isIndexUpdated() || annotationValues.isVersion());
 
-		// Create getters and setters for created and updated
-		builder.addMethod(this.getDeclaredGetter(createdField));
-		builder.addMethod(this.getDeclaredSetter(createdField));
-		builder.addMethod(this.getDeclaredGetter(updatedField));
-		builder.addMethod(this.getDeclaredSetter(updatedField));
-        // Create a representation of the desired output ITD
-        itdTypeDetails = builder.build();
-    }
+        // Annotations, types and the callback body are shared by all entities with the same configuration
+        TimestampTemplate template = TimestampTemplate.forConfiguration(annotationValues, createdInherited, updatedInherited);
 
+        // Either field may be switched off or renamed; the annotation values guarantee the features below have theirs
+        FieldMetadata createdField = null;
+        if (template.getCreatedField() != null) {
+            createdField = getTimestampField(template, template.getCreatedField(), withIndex(template.getCreatedAnnotations(), template.getCreatedField(), annotationValues.isIndexCreated()));
+            if (!createdInherited) {
+                builder.addField(createdField);
+            }
+        }
+        FieldMetadata updatedField = null;
+        if (template.getUpdatedField() != null) {
+            updatedField = getTimestampField(template, template.getUpdatedField(), withIndex(template.getUpdatedAnnotations(), template.getUpdatedField(), annotationValues.isIndexUpdated()));
+            if (!updatedInherited) {
+                builder.addField(updatedField);
+            }
+        }
+
+		// A composite (updated, id) index can only be declared at table level
+		if (annotationValues.isIndexUpdatedWithId()) {
+			AnnotationMetadataBuilder table = getCompositeIndexTable(annotationValues, identifierField);
+			if (table != null) {
+				builder.addAnnotation(table);
+			}
+		}
 
-    private FieldMetadata getTimestampField(String fieldName){
+		// The generated callback body reads the import switch, so the switch is introduced along with it
+		if (annotationValues.isImportMode() && template.hasCallback()) {
+			builder.addField(getImportModeField());
+			builder.addMethod(getSetTimestampImportMethod());
+			builder.addMethod(getIsTimestampImportMethod());
+		}
+
+        // Database generated timestamps need no callback, and entities using the shared listener only need its interface
+		if (template.hasCallback()) {
+			JavaType listener = annotationValues.getListener();
+			if (listener != null && MemberFindingUtils.getAnnotationOfType(governorTypeDetails.getAnnotations(), ENTITY_LISTENERS) == null) {
+				builder.addImplementsType(new JavaType(listener.getPackage().getFullyQualifiedPackageName() + ".Timestamped"));
+				AnnotationMetadataBuilder entityListeners = new AnnotationMetadataBuilder(ENTITY_LISTENERS);
+				entityListeners.addClassAttribute("value", listener);
+				builder.addAnnotation(entityListeners);
+			} else {
+				builder.addMethod(getTimestampMethod(template));
+			}
+		}
 
-    	List<AnnotationMetadataBuilder> list = new ArrayList<AnnotationMetadataBuilder>();
-		AnnotationMetadataBuilder dateTimeFormat=new AnnotationMetadataBuilder(new JavaType("org.springframework.format.annotation.DateTimeFormat"));
-		dateTimeFormat.addStringAttribute("pattern", "yyyy-MM-dd HH:mm:ss");
+		// Create getters and setters for created and updated, unless a superclass already has them
+		if (createdField != null && !createdInherited) {
+			builder.addMethod(this.getDeclaredGetter(createdField));
+			builder.addMethod(this.getDeclaredSetter(createdField));
+		}
+		if (updatedField != null && !updatedInherited) {
+			builder.addMethod(this.getDeclaredGetter(updatedField));
+			builder.addMethod(this.getDeclaredSetter(updatedField));
+		}
+
+		// The bucket is derived from created, so it is read-only
+		TimestampBucket bucket = annotationValues.getBucket();
+		if (bucket != null) {
+			FieldMetadata bucketField = getBucketField(template.getBucketField());
+			builder.addField(bucketField);
+			builder.addMethod(this.getDeclaredGetter(bucketField));
+			if (bucket.needsHelper(annotationValues.getStorage())) {
+				builder.addMethod(getBucketHelperMethod(bucket));
+			}
+			if (isActiveRecord()) {
+				builder.addMethod(getFindByCreatedBetweenMethod(createdField, bucketField, annotationValues.getStorage(), bucket));
+				builder.addMethod(getCountCreatedByBucketMethod(createdField, bucketField, annotationValues.getStorage(), bucket));
+			}
+		}
+
+		// History events need the identifier, which is only assigned once the row is inserted
+		JavaType history = identifierField == null ? null : annotationValues.getHistory();
+		// The watermark is seeded through the active record entityManager()
+		boolean watermark = annotationValues.isWatermark() && isActiveRecord();
+		if (history != null || watermark) {
+			builder.addMethod(getPostWriteMethod(history, watermark, annotationValues.getStorage(), updatedField, identifierField));
+		}
+		if (watermark) {
+			builder.addField(getWatermarkField());
+			builder.addField(getWatermarkSeededField());
+			builder.addMethod(getLastModifiedMethod(annotationValues.getStorage(), updatedField));
+		}
+
+		if (annotationValues.isHttpValidators()) {
+			builder.addMethod(getLastModifiedMillisMethod(annotationValues.getStorage(), updatedField));
+			if (identifierField != null) {
+				builder.addMethod(getStaticWeakETagMethod());
+				builder.addMethod(getWeakETagMethod(identifierField));
+			}
+		}
+
+		// Static queries run through the active record entityManager() and key on a single object identifier
+		if (isActiveRecord() && identifierField != null && !identifierField.getFieldType().isPrimitive()) {
+			if (annotationValues.isChangeFeed()) {
+				builder.addMethod(getStreamUpdatedSinceMethod(annotationValues.getStorage(), updatedField, identifierField, annotationValues.getBatchSize()));
+			}
+			if (annotationValues.isHttpValidators()) {
+				builder.addMethod(getFindLastModifiedMillisMethod(annotationValues.getStorage(), updatedField, identifierField));
+			}
+			if (annotationValues.isTouch()) {
+				builder.addMethod(getTouchMethod(template, annotationValues.getStorage(), bucket, identifierField, annotationValues.getBatchSize(), watermark));
+			}
+			if (annotationValues.isPurge() && isIntegralId(identifierField)) {
+				builder.addMethod(getPurgeCreatedBeforeMethod(createdField, annotationValues.getStorage(), bucket, template.getBucketField(), identifierField,
+						annotationValues.getBatchSize()));
+			}
+		}
+        // Create a representation of the desired output ITD
+        itdTypeDetails = builder.build();
+        this.members = null;
+    }
 
-		AnnotationMetadataBuilder temporal=new AnnotationMetadataBuilder(new JavaType("javax.persistence.Temporal"));
-		temporal.addEnumAttribute("value", "javax.persistence.TemporalType", "TIMESTAMP");
 
-		list.add(temporal);
-		list.add(dateTimeFormat);
+    private FieldMetadata getTimestampField(TimestampTemplate template, JavaSymbolName fieldName, List<AnnotationMetadata> annotations){
 
 		// Using the FieldMetadataBuilder to create the field definition.
 		FieldMetadataBuilder fieldBuilder = new FieldMetadataBuilder(getId(), // Metadata ID provided by supertype
 			Modifier.PRIVATE, // Using package protection rather than private
-			list, // No annotations for this field
-			new JavaSymbolName(fieldName), // Field name
-			new JavaType("java.util.Date")); // Field type
+			new ArrayList<AnnotationMetadataBuilder>(), // Annotations are added from the shared template below
+			fieldName, // Field name
+			template.getFieldType()); // Field type
+		for (AnnotationMetadata annotation : annotations) {
+			fieldBuilder.addAnnotation(annotation);
+		}
 
 		return fieldBuilder.build(); // Build and return a FieldMetadata instance
 
     }
 
-    private MethodMetadata getTimestampMethod() {
+    /**
+     * Adds a Hibernate {@code @Index} to the shared field annotations when requested, so incremental "changed since"
+     * queries on the column do not scan the whole table.
+     */
+    private List<AnnotationMetadata> withIndex(List<AnnotationMetadata> annotations, JavaSymbolName fieldName, boolean indexed) {
+        if (!indexed) {
+            return annotations;
+        }
+        AnnotationMetadataBuilder index = new AnnotationMetadataBuilder(HIBERNATE_INDEX);
+        index.addStringAttribute("name", getIndexName(fieldName.getSymbolName()));
 
-		// Specify the desired method name
-		JavaSymbolName methodName = new JavaSymbolName("onUpdate");
+        List<AnnotationMetadata> indexedAnnotations = new ArrayList<AnnotationMetadata>(annotations);
+        indexedAnnotations.add(index.build());
+        return indexedAnnotations;
+    }
 
-		// Check if a method with the same signature already exists in the target type
-		MethodMetadata method = methodExists(methodName, new ArrayList<AnnotatedJavaType>());
-		if (method != null) {
-			// If it already exists, just return the method and omit its generation via the ITD
-			return method;
-		}
+    /**
+     * Returns the indexed int bucket field ('createdBucket' by default); it is declared with the other timestamp fields
+     * so range partitions on the column can be pruned by the finders.
+     */
+    private FieldMetadata getBucketField(JavaSymbolName fieldName) {
+        FieldMetadataBuilder fieldBuilder = new FieldMetadataBuilder(getId(), Modifier.PRIVATE, new ArrayList<AnnotationMetadataBuilder>(),
+                fieldName, JavaType.INT_PRIMITIVE);
+        for (AnnotationMetadata annotation : withIndex(new ArrayList<AnnotationMetadata>(), fieldName, true)) {
+            fieldBuilder.addAnnotation(annotation);
+        }
+        return fieldBuilder.build();
+    }
+
+    /**
+     * Generates the private static int toCreatedBucket(long epochMillis) used by the callback and the finder.
+     */
+    private MethodMetadataBuilder getBucketHelperMethod(TimestampBucket bucket) {
+        JavaSymbolName methodName = new JavaSymbolName(TimestampBucket.HELPER_METHOD);
+        if (members.hasDeclaredMethod(methodName, JavaType.LONG_PRIMITIVE)) {
+            return null;
+        }
+        MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), Modifier.PRIVATE | Modifier.STATIC, methodName, JavaType.INT_PRIMITIVE,
+                AnnotatedJavaType.convertFromJavaTypes(JavaType.LONG_PRIMITIVE), Arrays.asList(new JavaSymbolName("epochMillis")),
+                new InvocableMemberBodyBuilder());
+        methodBuilder.setBody(bucket.getHelperBody());
+        return methodBuilder;
+    }
+
+    /**
+     * Generates a static findByCreatedBetween(from, to) query for entities created in [from, to). It restricts the
+     * bucket column before 'created', so the database only visits the partitions covering the range.
+     */
+    private MethodMetadataBuilder getFindByCreatedBetweenMethod(FieldMetadata createdField, FieldMetadata bucketField, TimestampStorage storage, TimestampBucket bucket) {
+        JavaSymbolName methodName = new JavaSymbolName("findByCreatedBetween");
+        JavaType createdType = createdField.getFieldType();
+        if (members.hasDeclaredMethod(methodName, createdType, createdType)) {
+            return null;
+        }
+
+        String entity = destination.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String created = createdField.getFieldName().getSymbolName();
+        String select = "SELECT o FROM " + getEntityName() + " o WHERE o." + bucketField.getFieldName() + " BETWEEN :fromBucket AND :toBucket AND o."
+                + created + " >= :from AND o." + created + " < :to ORDER BY o." + created;
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        if (!storage.isPrimitive()) {
+            bodyBuilder.appendFormalLine("if (from == null || to == null) {");
+            bodyBuilder.appendFormalLine("    throw new IllegalArgumentException(\"The from and to arguments are required\");");
+            bodyBuilder.appendFormalLine("}");
+        }
+        bodyBuilder.appendFormalLine("javax.persistence.TypedQuery<" + entity + "> query = " + entity + ".entityManager().createQuery(\"" + select + "\", " + entity + ".class);");
+        bodyBuilder.appendFormalLine("query.setParameter(\"fromBucket\", " + bucket.getBucketOf(storage, "from") + ");");
+        bodyBuilder.appendFormalLine("query.setParameter(\"toBucket\", " + bucket.getBucketOf(storage, "to") + ");");
+        bodyBuilder.appendFormalLine("query.setParameter(\"from\", from);");
+        bodyBuilder.appendFormalLine("query.setParameter(\"to\", to);");
+        bodyBuilder.appendFormalLine("return query;");
+
+        JavaType returnType = new JavaType(TYPED_QUERY.getFullyQualifiedTypeName(), 0, DataType.TYPE, null, Arrays.asList(destination));
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, returnType, AnnotatedJavaType.convertFromJavaTypes(createdType,
+                createdType), Arrays.asList(new JavaSymbolName("from"), new JavaSymbolName("to")), bodyBuilder);
+    }
 
-		AnnotationMetadataBuilder prePersists=new AnnotationMetadataBuilder(new JavaType("javax.persistence.PrePersist"));
-		AnnotationMetadataBuilder preUpdate=new AnnotationMetadataBuilder(new JavaType("javax.persistence.PreUpdate"));
+    /**
+     * Generates a static countCreatedByBucket(from, to, granularity) returning the number of entities created in
+     * [from, to) per bucket as parallel arrays: {bucket values, counts}, in ascending bucket order. The database groups
+     * on the bucket column, so only one row per bucket is transferred; coarser granularities than the column's are
+     * rolled up from those rows without allocating per row.
+     */
+    private MethodMetadataBuilder getCountCreatedByBucketMethod(FieldMetadata createdField, FieldMetadata bucketField, TimestampStorage storage, TimestampBucket bucket) {
+        JavaSymbolName methodName = new JavaSymbolName("countCreatedByBucket");
+        JavaType createdType = createdField.getFieldType();
+        if (members.hasDeclaredMethod(methodName, createdType, createdType, JavaType.STRING)) {
+            return null;
+        }
 
-		// Define method annotations
-		List<AnnotationMetadataBuilder> annotations = new ArrayList<AnnotationMetadataBuilder>();
-		annotations.add(prePersists);
-		annotations.add(preUpdate);
+        String entity = destination.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String created = createdField.getFieldName().getSymbolName();
+        String bucketName = bucketField.getFieldName().getSymbolName();
+        String select = "SELECT o." + bucketName + ", COUNT(o) FROM " + getEntityName() + " o WHERE o." + bucketName + " BETWEEN :fromBucket AND :toBucket AND o."
+                + created + " >= :from AND o." + created + " < :to GROUP BY o." + bucketName + " ORDER BY o." + bucketName;
 
-		// Define method throws types (none in this case)
-		List<JavaType> throwsTypes = new ArrayList<JavaType>();
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        if (!storage.isPrimitive()) {
+            bodyBuilder.appendFormalLine("if (from == null || to == null) {");
+            bodyBuilder.appendFormalLine("    throw new IllegalArgumentException(\"The from and to arguments are required\");");
+            bodyBuilder.appendFormalLine("}");
+        }
+        // Only granularities the bucket column can be rolled up to are accepted
+        StringBuilder supported = new StringBuilder();
+        bodyBuilder.appendFormalLine("long divisor;");
+        for (TimestampBucket granularity : TimestampBucket.values()) {
+            if (granularity.ordinal() >= bucket.ordinal()) {
+                bodyBuilder.appendFormalLine((supported.length() == 0 ? "" : "} else ") + "if (\"" + granularity + "\".equalsIgnoreCase(granularity)) {");
+                bodyBuilder.appendFormalLine("    divisor = " + bucket.getRollUpDivisor(granularity) + "L;");
+                supported.append(supported.length() == 0 ? "" : ", ").append(granularity);
+            }
+        }
+        bodyBuilder.appendFormalLine("} else {");
+        bodyBuilder.appendFormalLine("    throw new IllegalArgumentException(\"Unsupported granularity '\" + granularity + \"'; expected one of " + supported + "\");");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("java.util.List<Object[]> rows = " + entity + ".entityManager().createQuery(\"" + select + "\", Object[].class)");
+        bodyBuilder.appendFormalLine("        .setParameter(\"fromBucket\", " + bucket.getBucketOf(storage, "from") + ").setParameter(\"toBucket\", " + bucket.getBucketOf(storage, "to") + ")");
+        bodyBuilder.appendFormalLine("        .setParameter(\"from\", from).setParameter(\"to\", to).getResultList();");
+        bodyBuilder.appendFormalLine("long[] buckets = new long[rows.size()];");
+        bodyBuilder.appendFormalLine("long[] counts = new long[rows.size()];");
+        bodyBuilder.appendFormalLine("int size = 0;");
+        bodyBuilder.appendFormalLine("for (Object[] row : rows) {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("long bucket = ((Number) row[0]).longValue() / divisor;");
+        bodyBuilder.appendFormalLine("long count = ((Number) row[1]).longValue();");
+        bodyBuilder.appendFormalLine("if (size > 0 && buckets[size - 1] == bucket) {");
+        bodyBuilder.appendFormalLine("    counts[size - 1] += count;");
+        bodyBuilder.appendFormalLine("} else {");
+        bodyBuilder.appendFormalLine("    buckets[size] = bucket;");
+        bodyBuilder.appendFormalLine("    counts[size++] = count;");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("if (size < buckets.length) {");
+        bodyBuilder.appendFormalLine("    buckets = java.util.Arrays.copyOf(buckets, size);");
+        bodyBuilder.appendFormalLine("    counts = java.util.Arrays.copyOf(counts, size);");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("return new long[][] { buckets, counts };");
 
-		// Define method parameter types (none in this case)
-		List<AnnotatedJavaType> parameterTypes = new ArrayList<AnnotatedJavaType>();
+        JavaType returnType = new JavaType(JavaType.LONG_PRIMITIVE.getFullyQualifiedTypeName(), 2, DataType.PRIMITIVE, null, null);
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, returnType, AnnotatedJavaType.convertFromJavaTypes(createdType,
+                createdType, JavaType.STRING), Arrays.asList(new JavaSymbolName("from"), new JavaSymbolName("to"), new JavaSymbolName("granularity")), bodyBuilder);
+    }
 
-		// Define method parameter names (none in this case)
-		List<JavaSymbolName> parameterNames = new ArrayList<JavaSymbolName>();
+    /**
+     * Returns the static ThreadLocal backing the import switch; it only ever holds Boolean.TRUE or nothing.
+     */
+    private FieldMetadata getImportModeField() {
+        JavaType threadLocal = new JavaType(THREAD_LOCAL.getFullyQualifiedTypeName(), 0, DataType.TYPE, null, Arrays.asList(JavaType.BOOLEAN_OBJECT));
+        FieldMetadataBuilder fieldBuilder = new FieldMetadataBuilder(getId(), Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL,
+                new ArrayList<AnnotationMetadataBuilder>(), TimestampTemplate.IMPORT_FIELD, threadLocal);
+        fieldBuilder.setFieldInitializer("new " + threadLocal.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver()) + "()");
+        return fieldBuilder.build();
+    }
 
-		// Create the method body
-		InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
-		bodyBuilder.appendFormalLine("if (this.created == null) {");
-		bodyBuilder.appendFormalLine("    this.created = new java.util.Date();");
-		bodyBuilder.appendFormalLine("}");
-		bodyBuilder.appendFormalLine("this.updated = new java.util.Date();");
+    /**
+     * Generates the static setTimestampImport(enabled) switch for the current thread.
+     */
+    private MethodMetadataBuilder getSetTimestampImportMethod() {
+        JavaSymbolName methodName = new JavaSymbolName("setTimestampImport");
+        if (members.hasDeclaredMethod(methodName, JavaType.BOOLEAN_PRIMITIVE)) {
+            return null;
+        }
 
-		// Use the MethodMetadataBuilder for easy creation of MethodMetadata
-		MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), Modifier.PUBLIC, methodName, JavaType.VOID_PRIMITIVE, parameterTypes, parameterNames, bodyBuilder);
-		methodBuilder.setAnnotations(annotations);
-		methodBuilder.setThrowsTypes(throwsTypes);
-		return methodBuilder.build(); // Build and return a MethodMetadata instance
-	}
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("if (enabled) {");
+        bodyBuilder.appendFormalLine("    " + TimestampTemplate.IMPORT_FIELD + ".set(Boolean.TRUE);");
+        bodyBuilder.appendFormalLine("} else {");
+        bodyBuilder.appendFormalLine("    " + TimestampTemplate.IMPORT_FIELD + ".remove();");
+        bodyBuilder.appendFormalLine("}");
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, JavaType.VOID_PRIMITIVE,
+                AnnotatedJavaType.convertFromJavaTypes(JavaType.BOOLEAN_PRIMITIVE), Arrays.asList(new JavaSymbolName("enabled")), bodyBuilder);
+    }
+
+    private MethodMetadataBuilder getIsTimestampImportMethod() {
+        JavaSymbolName methodName = new JavaSymbolName("isTimestampImport");
+        if (members.hasDeclaredMethod(methodName)) {
+            return null;
+        }
 
-    private MethodMetadata methodExists(JavaSymbolName methodName, List<AnnotatedJavaType> paramTypes) {
-        // We have no access to method parameter information, so we scan by name alone and treat any match as authoritative
-        // We do not scan the superclass, as the caller is expected to know we'll only scan the current class
-        for (MethodMetadata method : governorTypeDetails.getDeclaredMethods()) {
-            if (method.getMethodName().equals(methodName) && method.getParameterTypes().equals(paramTypes)) {
-                // Found a method of the expected name; we won't check method parameters though
-                return method;
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("return " + TimestampTemplate.IMPORT_FIELD + ".get() != null;");
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, JavaType.BOOLEAN_PRIMITIVE, bodyBuilder);
+    }
+
+    /**
+     * Returns a JPA 2.1 {@code @Table(indexes = ...)} declaring the composite (updated, id) index, or null if the
+     * governor has no identifier or already maps its table, in which case the ITD cannot introduce another
+     * {@code @Table}. Roo introduces its own {@code @Table} when the table, schema or catalog is set on
+     * {@code @RooJpaActiveRecord} or {@code @RooJpaEntity}.
+     */
+    private AnnotationMetadataBuilder getCompositeIndexTable(TimestampAnnotationValues annotationValues, FieldMetadata identifierField) {
+        if (identifierField == null || MemberFindingUtils.getAnnotationOfType(governorTypeDetails.getAnnotations(), JPA_TABLE) != null) {
+            return null;
+        }
+        for (JavaType rooJpa : ROO_JPA_ANNOTATIONS) {
+            AnnotationMetadata rooAnnotation = MemberFindingUtils.getAnnotationOfType(governorTypeDetails.getAnnotations(), rooJpa);
+            if (rooAnnotation != null
+                    && (rooAnnotation.getAttribute(new JavaSymbolName("table")) != null || rooAnnotation.getAttribute(new JavaSymbolName("schema")) != null
+                            || rooAnnotation.getAttribute(new JavaSymbolName("catalog")) != null)) {
+                return null;
             }
         }
-        return null;
+
+        // columnList names columns, so mapped column names take precedence over the field names; 'updated' always has
+        // an explicit @Column(name) here, so the index and the field agree whatever naming strategy the provider uses
+        String idName = getColumnName(identifierField);
+        String updatedColumn = annotationValues.getUpdatedColumn();
+        AnnotationMetadataBuilder index = new AnnotationMetadataBuilder(JPA_INDEX);
+        index.addStringAttribute("name", getIndexName(updatedColumn + "_" + idName));
+        index.addStringAttribute("columnList", updatedColumn + ", " + idName);
+
+        List<NestedAnnotationAttributeValue> indexes = new ArrayList<NestedAnnotationAttributeValue>();
+        indexes.add(new NestedAnnotationAttributeValue(new JavaSymbolName("value"), index.build()));
+        AnnotationMetadataBuilder table = new AnnotationMetadataBuilder(JPA_TABLE);
+        table.addAttribute(new ArrayAttributeValue<NestedAnnotationAttributeValue>(new JavaSymbolName("indexes"), indexes));
+        return table;
+    }
+
+    /**
+     * Returns the name given by the field's {@code @Column}, or the field name if it has none.
+     */
+    private static String getColumnName(FieldMetadata field) {
+        AnnotationMetadata column = MemberFindingUtils.getAnnotationOfType(field.getAnnotations(), JPA_COLUMN);
+        AnnotationAttributeValue<?> name = column == null ? null : column.getAttribute(new JavaSymbolName("name"));
+        if (name == null || "".equals(name.getValue())) {
+            return field.getFieldName().getSymbolName();
+        }
+        return name.getValue().toString();
+    }
+
+    private String getIndexName(String columns) {
+        return destination.getSimpleTypeName().toLowerCase() + "_" + columns + "_idx";
+    }
+
+    /**
+     * Returns true if a Roo JPA annotation on the governor still introduces its own @Version field
+     */
+    private boolean hasRooVersionField() {
+        for (JavaType rooJpa : ROO_JPA_ANNOTATIONS) {
+            AnnotationMetadata rooAnnotation = MemberFindingUtils.getAnnotationOfType(governorTypeDetails.getAnnotations(), rooJpa);
+            if (rooAnnotation != null) {
+                AnnotationAttributeValue<?> versionField = rooAnnotation.getAttribute(new JavaSymbolName("versionField"));
+                if (versionField == null || !"".equals(versionField.getValue())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if a source superclass declares the accessor pair of the given timestamp field, in which case the
+     * superclass owns the field and its mapping. Accessors the governor declares itself take precedence, as before. A
+     * superclass that only has one of the accessors, a getter of another type, or options that would have to annotate
+     * the field are rejected here, since the ITD could neither override nor reach the field.
+     *
+     * @param fieldName the timestamp field (null if it is disabled)
+     * @param annotated true if the configuration needs annotations on this field
+     */
+    private boolean isInherited(JavaSymbolName fieldName, TimestampAnnotationValues annotationValues, boolean annotated) {
+        if (fieldName == null) {
+            return false;
+        }
+        JavaType fieldType = annotationValues.getStorage().getFieldType();
+        JavaSymbolName getterName = BeanInfoUtils.getAccessorMethodName(fieldName, fieldType);
+        JavaSymbolName setterName = BeanInfoUtils.getMutatorMethodName(fieldName);
+        if (members.hasDeclaredMethod(getterName) || members.hasDeclaredMethod(setterName, fieldType)) {
+            return false;
+        }
+        MethodMetadata getter = members.getInheritedMethod(getterName);
+        MethodMetadata setter = members.getInheritedMethod(setterName, fieldType);
+        if (getter == null && setter == null) {
+            return false;
+        }
+
+        String type = fieldType.getSimpleTypeName();
+        Validate.isTrue(getter != null && setter != null && fieldType.equals(getter.getReturnType()), "@RooTimestamp on "
+                + destination.getFullyQualifiedTypeName() + " inherits part of the '" + fieldName + "' accessors; a superclass must declare both " + type
+                + " " + getterName + "() and " + setterName + "(" + type + "), or none of them (check the storage, or rename the field)");
+        Validate.isTrue(!annotated, "@RooTimestamp on " + destination.getFullyQualifiedTypeName() + " inherits " + getterName
+                + "(), so its superclass maps '" + fieldName + "'; move the column, index, precision, version or DATABASE source settings for it there");
+        inheritedFields.add(fieldName);
+        return true;
+    }
+
+    /**
+     * Returns how generated instance code reads the field: directly, or through the getter when a superclass owns it.
+     */
+    private String getReadExpression(FieldMetadata field) {
+        return TimestampTemplate.getReadExpression(field.getFieldName(), field.getFieldType(), inheritedFields.contains(field.getFieldName()));
+    }
+
+    private boolean isActiveRecord() {
+        return MemberFindingUtils.getAnnotationOfType(governorTypeDetails.getAnnotations(), ROO_JPA_ACTIVE_RECORD) != null;
+    }
+
+    /**
+     * Returns the JPQL entity name, honouring @RooJpaActiveRecord(entityName = ...)
+     */
+    private String getEntityName() {
+        AnnotationMetadata activeRecord = MemberFindingUtils.getAnnotationOfType(governorTypeDetails.getAnnotations(), ROO_JPA_ACTIVE_RECORD);
+        if (activeRecord != null && activeRecord.getAttribute(new JavaSymbolName("entityName")) != null) {
+            return (String) activeRecord.getAttribute(new JavaSymbolName("entityName")).getValue();
+        }
+        return destination.getSimpleTypeName();
+    }
+
+    /**
+     * Generates a static streamUpdatedSince(since, afterId) returning an iterator over the entities changed after the
+     * (updated, id) cursor. Pages are fetched lazily with keyset pagination, so the cost per page stays constant and
+     * only one page is held at a time; the persistence context is cleared when the iterator moves past a page it
+     * loaded, never before the first one. A null since (0 under EPOCH_MILLIS storage) streams from the first entity
+     * with an updated time.
+     */
+    private MethodMetadataBuilder getStreamUpdatedSinceMethod(TimestampStorage storage, FieldMetadata updatedField, FieldMetadata identifierField, int pageSize) {
+        JavaSymbolName methodName = new JavaSymbolName("streamUpdatedSince");
+        JavaType updatedType = updatedField.getFieldType();
+        JavaType idType = identifierField.getFieldType();
+        if (members.hasDeclaredMethod(methodName, updatedType, idType)) {
+            return null;
+        }
+
+        String entity = destination.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String updatedName = updatedType.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String idName = idType.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String updated = updatedField.getFieldName().getSymbolName();
+        String id = identifierField.getFieldName().getSymbolName();
+        String from = "SELECT o FROM " + getEntityName() + " o WHERE ";
+        String order = " ORDER BY o." + updated + ", o." + id;
+        // An unset epoch millis value is 0 rather than null
+        String sinceUnset = storage.isPrimitive() ? "since <= 0L" : "since == null";
+        String cursorUnset = storage.isPrimitive() ? "cursorUpdated <= 0L" : "cursorUpdated == null";
+        String anyUpdated = storage.isPrimitive() ? " > 0" : " IS NOT NULL";
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("if (" + sinceUnset + " && afterId != null) {");
+        bodyBuilder.appendFormalLine("    throw new IllegalArgumentException(\"afterId requires since\");");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("final " + updatedName + " initialUpdated = since;");
+        bodyBuilder.appendFormalLine("final " + idName + " initialId = afterId;");
+        bodyBuilder.appendFormalLine("return new java.util.Iterator<" + entity + ">() {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("private " + updatedName + " cursorUpdated = initialUpdated;");
+        bodyBuilder.appendFormalLine("private " + idName + " cursorId = initialId;");
+        bodyBuilder.appendFormalLine("private java.util.Iterator<" + entity + "> page = java.util.Collections.<" + entity + ">emptyList().iterator();");
+        bodyBuilder.appendFormalLine("private boolean loadedPage;");
+        bodyBuilder.appendFormalLine("private boolean lastPage;");
+        bodyBuilder.appendFormalLine("");
+        bodyBuilder.appendFormalLine("public boolean hasNext() {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("if (!page.hasNext() && !lastPage) {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("// Release the page just read; loading the first page leaves the caller's persistence context alone");
+        bodyBuilder.appendFormalLine("if (loadedPage) {");
+        bodyBuilder.appendFormalLine("    " + entity + ".entityManager().clear();");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("javax.persistence.TypedQuery<" + entity + "> query;");
+        bodyBuilder.appendFormalLine("if (" + cursorUnset + ") {");
+        bodyBuilder.appendFormalLine("    query = " + entity + ".entityManager().createQuery(\"" + from + "o." + updated + anyUpdated + order + "\", " + entity + ".class);");
+        bodyBuilder.appendFormalLine("} else if (cursorId == null) {");
+        bodyBuilder.appendFormalLine("    query = " + entity + ".entityManager().createQuery(\"" + from + "o." + updated + " > :updated" + order + "\", " + entity + ".class).setParameter(\"updated\", cursorUpdated);");
+        bodyBuilder.appendFormalLine("} else {");
+        bodyBuilder.appendFormalLine("    query = " + entity + ".entityManager().createQuery(\"" + from + "o." + updated + " > :updated OR (o." + updated + " = :updated AND o." + id + " > :id)" + order + "\", " + entity + ".class).setParameter(\"updated\", cursorUpdated).setParameter(\"id\", cursorId);");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("java.util.List<" + entity + "> results = query.setMaxResults(" + pageSize + ").getResultList();");
+        bodyBuilder.appendFormalLine("loadedPage = true;");
+        bodyBuilder.appendFormalLine("lastPage = results.size() < " + pageSize + ";");
+        bodyBuilder.appendFormalLine("page = results.iterator();");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("return page.hasNext();");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("");
+        bodyBuilder.appendFormalLine("public " + entity + " next() {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("if (!hasNext()) {");
+        bodyBuilder.appendFormalLine("    throw new java.util.NoSuchElementException();");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine(entity + " next = page.next();");
+        bodyBuilder.appendFormalLine("cursorUpdated = next." + BeanInfoUtils.getAccessorMethodName(updatedField) + "();");
+        bodyBuilder.appendFormalLine("cursorId = next." + BeanInfoUtils.getAccessorMethodName(identifierField) + "();");
+        bodyBuilder.appendFormalLine("return next;");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("");
+        bodyBuilder.appendFormalLine("public void remove() {");
+        bodyBuilder.appendFormalLine("    throw new UnsupportedOperationException();");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("};");
+
+        List<JavaSymbolName> parameterNames = Arrays.asList(new JavaSymbolName("since"), new JavaSymbolName("afterId"));
+        JavaType returnType = new JavaType(ITERATOR.getFullyQualifiedTypeName(), 0, DataType.TYPE, null, Arrays.asList(destination));
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, returnType,
+                AnnotatedJavaType.convertFromJavaTypes(updatedType, idType), parameterNames, bodyBuilder);
+    }
+
+    /**
+     * Generates the post-persist/post-update callback. JPA allows one method per lifecycle event, so the history event
+     * and the watermark share it: recordHistory() hands the change to the history writer's queue, which converts and
+     * inserts the event on its own thread, and advanceLastModified() raises the watermark with a lock-free max. The
+     * flushing thread only pays for the enqueue and a compare-and-set.
+     *
+     * @param history the history writer type, or null to record no history
+     */
+    private MethodMetadataBuilder getPostWriteMethod(JavaType history, boolean watermark, TimestampStorage storage, FieldMetadata updatedField,
+            FieldMetadata identifierField) {
+        JavaSymbolName methodName = new JavaSymbolName(history == null ? "advanceLastModified" : "recordHistory");
+        if (members.hasDeclaredMethod(methodName)) {
+            return null;
+        }
+
+        String updated = getReadExpression(updatedField);
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("long modified = " + storage.getUnsetCondition(updated) + " ? System.currentTimeMillis() : " + storage.getToMillisExpression(updated)
+                + ";");
+        if (history != null) {
+            bodyBuilder.appendFormalLine(history.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver()) + ".record(\"" + getEntityName()
+                    + "\", this." + BeanInfoUtils.getAccessorMethodName(identifierField) + "(), modified);");
+        }
+        if (watermark) {
+            appendAdvanceWatermark(bodyBuilder, "modified");
+        }
+
+        MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), Modifier.PUBLIC, methodName, JavaType.VOID_PRIMITIVE, bodyBuilder);
+        methodBuilder.addAnnotation(new AnnotationMetadataBuilder(POST_PERSIST));
+        methodBuilder.addAnnotation(new AnnotationMetadataBuilder(POST_UPDATE));
+        return methodBuilder;
+    }
+
+    /**
+     * Appends a lock-free max: the watermark only moves forward, however writers interleave
+     */
+    private static void appendAdvanceWatermark(InvocableMemberBodyBuilder bodyBuilder, String millis) {
+        bodyBuilder.appendFormalLine("long current = " + WATERMARK_FIELD + ".get();");
+        bodyBuilder.appendFormalLine("while (" + millis + " > current && !" + WATERMARK_FIELD + ".compareAndSet(current, " + millis + ")) {");
+        bodyBuilder.appendFormalLine("    current = " + WATERMARK_FIELD + ".get();");
+        bodyBuilder.appendFormalLine("}");
+    }
+
+    /**
+     * Returns the static AtomicLong holding the latest known 'updated' in epoch milliseconds, -1 while none is known.
+     */
+    private FieldMetadata getWatermarkField() {
+        FieldMetadataBuilder fieldBuilder = new FieldMetadataBuilder(getId(), Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL,
+                new ArrayList<AnnotationMetadataBuilder>(), WATERMARK_FIELD, ATOMIC_LONG);
+        fieldBuilder.setFieldInitializer("new " + ATOMIC_LONG.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver()) + "(-1L)");
+        return fieldBuilder.build();
+    }
+
+    private FieldMetadata getWatermarkSeededField() {
+        return new FieldMetadataBuilder(getId(), Modifier.PRIVATE | Modifier.STATIC | Modifier.VOLATILE, new ArrayList<AnnotationMetadataBuilder>(),
+                WATERMARK_SEEDED_FIELD, JavaType.BOOLEAN_PRIMITIVE).build();
+    }
+
+    /**
+     * Generates the static lastModified(). Once seeded it costs two volatile reads; the first call per process runs a
+     * MAX('updated') projection query and merges its result with whatever the callback has recorded meanwhile, so a
+     * write racing the seed is never lost.
+     */
+    private MethodMetadataBuilder getLastModifiedMethod(TimestampStorage storage, FieldMetadata updatedField) {
+        JavaSymbolName methodName = new JavaSymbolName("lastModified");
+        if (members.hasDeclaredMethod(methodName)) {
+            return null;
+        }
+
+        String entity = destination.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        JavaType resultType = storage.isPrimitive() ? JavaType.LONG_OBJECT : updatedField.getFieldType();
+        String resultName = resultType.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String select = "SELECT MAX(o." + updatedField.getFieldName().getSymbolName() + ") FROM " + getEntityName() + " o";
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("if (!" + WATERMARK_SEEDED_FIELD + ") {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine(resultName + " latest = " + entity + ".entityManager().createQuery(\"" + select + "\", " + resultName + ".class).getSingleResult();");
+        bodyBuilder.appendFormalLine("if (latest != null" + (storage.isPrimitive() ? " && latest.longValue() > 0L" : "") + ") {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("long millis = " + storage.getToMillisExpression("latest") + ";");
+        appendAdvanceWatermark(bodyBuilder, "millis");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine(WATERMARK_SEEDED_FIELD + " = true;");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("return " + WATERMARK_FIELD + ".get();");
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, JavaType.LONG_PRIMITIVE, bodyBuilder);
+    }
+
+    /**
+     * Generates lastModifiedMillis(), returning 'updated' in epoch milliseconds or -1 if it is not set yet.
+     */
+    private MethodMetadataBuilder getLastModifiedMillisMethod(TimestampStorage storage, FieldMetadata updatedField) {
+        JavaSymbolName methodName = new JavaSymbolName("lastModifiedMillis");
+        if (members.hasDeclaredMethod(methodName)) {
+            return null;
+        }
+
+        String updated = getReadExpression(updatedField);
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        if (storage.isPrimitive()) {
+            // An unset epoch-millis field holds 0, which must not pass for a real time of 1970-01-01
+            bodyBuilder.appendFormalLine("return " + updated + " == 0L ? -1L : " + updated + ";");
+        } else {
+            bodyBuilder.appendFormalLine("return " + updated + " == null ? -1L : " + storage.getToMillisExpression(updated) + ";");
+        }
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC, methodName, JavaType.LONG_PRIMITIVE, bodyBuilder);
+    }
+
+    /**
+     * Generates the static weakETag(id, lastModifiedMillis); a controller can build the same tag from a projection
+     * query as the entity does from itself.
+     */
+    private MethodMetadataBuilder getStaticWeakETagMethod() {
+        JavaSymbolName methodName = new JavaSymbolName("weakETag");
+        if (members.hasDeclaredMethod(methodName, JavaType.OBJECT, JavaType.LONG_PRIMITIVE)) {
+            return null;
+        }
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("return \"W/\\\"\" + id + '-' + Long.toHexString(lastModifiedMillis) + '\"';");
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, JavaType.STRING, AnnotatedJavaType.convertFromJavaTypes(
+                JavaType.OBJECT, JavaType.LONG_PRIMITIVE), Arrays.asList(new JavaSymbolName("id"), new JavaSymbolName("lastModifiedMillis")), bodyBuilder);
+    }
+
+    /**
+     * Generates weakETag(), the weak entity tag of this entity's identifier and 'updated' time.
+     */
+    private MethodMetadataBuilder getWeakETagMethod(FieldMetadata identifierField) {
+        JavaSymbolName methodName = new JavaSymbolName("weakETag");
+        if (members.hasDeclaredMethod(methodName)) {
+            return null;
+        }
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("return weakETag(this." + BeanInfoUtils.getAccessorMethodName(identifierField) + "(), lastModifiedMillis());");
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC, methodName, JavaType.STRING, bodyBuilder);
+    }
+
+    /**
+     * Generates a static findLastModifiedMillis(id) that selects only the 'updated' column, returning -1 if there is
+     * no such entity. It lets a controller answer a conditional GET without loading the entity or its associations.
+     */
+    private MethodMetadataBuilder getFindLastModifiedMillisMethod(TimestampStorage storage, FieldMetadata updatedField, FieldMetadata identifierField) {
+        JavaSymbolName methodName = new JavaSymbolName("findLastModifiedMillis");
+        JavaType idType = identifierField.getFieldType();
+        if (members.hasDeclaredMethod(methodName, idType)) {
+            return null;
+        }
+
+        String entity = destination.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        JavaType resultType = storage.isPrimitive() ? JavaType.LONG_OBJECT : updatedField.getFieldType();
+        String resultName = resultType.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String select = "SELECT o." + updatedField.getFieldName().getSymbolName() + " FROM " + getEntityName() + " o WHERE o."
+                + identifierField.getFieldName().getSymbolName() + " = :id";
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("if (id == null) {");
+        bodyBuilder.appendFormalLine("    return -1L;");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("java.util.List<" + resultName + "> results = " + entity + ".entityManager().createQuery(\"" + select + "\", " + resultName
+                + ".class).setParameter(\"id\", id).getResultList();");
+        bodyBuilder.appendFormalLine(resultName + " updated = results.isEmpty() ? null : results.get(0);");
+        String unset = storage.isPrimitive() ? "updated == null || updated.longValue() == 0L" : "updated == null";
+        bodyBuilder.appendFormalLine("return " + unset + " ? -1L : " + storage.getToMillisExpression("updated") + ";");
+
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, JavaType.LONG_PRIMITIVE,
+                AnnotatedJavaType.convertFromJavaTypes(idType), Arrays.asList(new JavaSymbolName("id")), bodyBuilder);
+    }
+
+    /**
+     * Generates a static touch(ids) that bumps 'updated' (and fills a missing 'created', if enabled) for the given identifiers with
+     * chunked bulk UPDATE statements, without loading the entities or running their callbacks. With the watermark
+     * enabled it advances lastModified() itself, since no callback will.
+     */
+    private MethodMetadataBuilder getTouchMethod(TimestampTemplate template, TimestampStorage storage, TimestampBucket bucket, FieldMetadata identifierField, int chunkSize,
+            boolean watermark) {
+        JavaSymbolName methodName = new JavaSymbolName("touch");
+        JavaType idsType = new JavaType(COLLECTION.getFullyQualifiedTypeName(), 0, DataType.TYPE, null, Arrays.asList(identifierField.getFieldType()));
+        if (members.hasDeclaredMethod(methodName, idsType)) {
+            return null;
+        }
+
+        String entity = destination.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String idName = identifierField.getFieldType().getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String id = identifierField.getFieldName().getSymbolName();
+        String updated = template.getUpdatedField().getSymbolName();
+        JavaSymbolName createdField = template.getCreatedField();
+        String update;
+        if (template.getNowDeclaration() == null) {
+            // The database owns the values, so let it supply the time as well
+            update = "UPDATE " + getEntityName() + " o SET o." + updated + " = CURRENT_TIMESTAMP WHERE o." + id + " IN (:ids)";
+        } else {
+            StringBuilder set = new StringBuilder("o." + updated + " = :now");
+            if (createdField != null) {
+                String created = "o." + createdField;
+                if (storage.isPrimitive()) {
+                    set.append(", ").append(created).append(" = CASE WHEN ").append(created).append(" = 0 THEN :now ELSE ").append(created).append(" END");
+                } else {
+                    set.append(", ").append(created).append(" = COALESCE(").append(created).append(", :now)");
+                }
+            }
+            if (bucket != null) {
+                // A bucket is only filled in along with a missing 'created'; SET expressions all see the old row
+                String bucketColumn = "o." + template.getBucketField();
+                set.append(", ").append(bucketColumn).append(" = CASE WHEN o.").append(createdField).append(storage.isPrimitive() ? " = 0" : " IS NULL")
+                        .append(" THEN :bucket ELSE ").append(bucketColumn).append(" END");
+            }
+            update = "UPDATE " + getEntityName() + " o SET " + set + " WHERE o." + id + " IN (:ids)";
+        }
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        bodyBuilder.appendFormalLine("if (ids == null || ids.isEmpty()) {");
+        bodyBuilder.appendFormalLine("    return 0;");
+        bodyBuilder.appendFormalLine("}");
+        if (template.getNowDeclaration() != null) {
+            bodyBuilder.appendFormalLine(template.getNowDeclaration());
+        }
+        bodyBuilder.appendFormalLine("java.util.List<" + idName + "> idList = new java.util.ArrayList<" + idName + ">(ids);");
+        bodyBuilder.appendFormalLine("int count = 0;");
+        bodyBuilder.appendFormalLine("for (int from = 0; from < idList.size(); from += " + chunkSize + ") {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("javax.persistence.Query query = " + entity + ".entityManager().createQuery(\"" + update + "\");");
+        if (template.getNowDeclaration() != null) {
+            bodyBuilder.appendFormalLine("query.setParameter(\"now\", " + template.getNowValue() + ");");
+        }
+        if (bucket != null) {
+            bodyBuilder.appendFormalLine("query.setParameter(\"bucket\", " + bucket.getBucketOf(storage, template.getNowValue()) + ");");
+        }
+        bodyBuilder.appendFormalLine("query.setParameter(\"ids\", idList.subList(from, Math.min(from + " + chunkSize + ", idList.size())));");
+        bodyBuilder.appendFormalLine("count += query.executeUpdate();");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        if (watermark) {
+            // The bulk UPDATE runs no callbacks, so the watermark is advanced here; the database's own time is not
+            // read back, so the JVM clock stands in for it
+            bodyBuilder.appendFormalLine("if (count > 0) {");
+            bodyBuilder.indent();
+            bodyBuilder.appendFormalLine("long touched = " + (template.getNowMillis() == null ? "System.currentTimeMillis()" : template.getNowMillis()) + ";");
+            appendAdvanceWatermark(bodyBuilder, "touched");
+            bodyBuilder.indentRemove();
+            bodyBuilder.appendFormalLine("}");
+        }
+        bodyBuilder.appendFormalLine("return count;");
+
+        MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, JavaType.INT_PRIMITIVE,
+                AnnotatedJavaType.convertFromJavaTypes(idsType), Arrays.asList(new JavaSymbolName("ids")), bodyBuilder);
+        methodBuilder.addAnnotation(new AnnotationMetadataBuilder(TRANSACTIONAL));
+        return methodBuilder;
     }
 
+    private static boolean isIntegralId(FieldMetadata identifierField) {
+        return JavaType.LONG_OBJECT.equals(identifierField.getFieldType()) || JavaType.INT_OBJECT.equals(identifierField.getFieldType());
+    }
+
+    /**
+     * Generates a static purgeCreatedBefore(cutoff, afterId, pauseMillis) for retention. Each chunk selects the next
+     * chunkSize ids older than the cutoff in id order, then deletes that id range with a bulk DELETE in its own
+     * resource-local transaction on a private EntityManager, so no entity is loaded and no transaction or lock spans more
+     * than one chunk. It returns {deleted, lastId}; passing lastId back as afterId resumes the purge.
+     */
+    private MethodMetadataBuilder getPurgeCreatedBeforeMethod(FieldMetadata createdField, TimestampStorage storage, TimestampBucket bucket,
+            JavaSymbolName bucketField, FieldMetadata identifierField, int chunkSize) {
+        JavaSymbolName methodName = new JavaSymbolName("purgeCreatedBefore");
+        JavaType createdType = createdField.getFieldType();
+        JavaType idType = identifierField.getFieldType();
+        if (members.hasDeclaredMethod(methodName, createdType, idType, JavaType.LONG_PRIMITIVE)) {
+            return null;
+        }
+
+        String entity = destination.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String idName = idType.getNameIncludingTypeParameters(false, builder.getImportRegistrationResolver());
+        String id = identifierField.getFieldName().getSymbolName();
+        // The bucket predicate lets the database skip partitions that are entirely newer than the cutoff
+        String older = "o." + createdField.getFieldName() + " < :cutoff" + (bucket == null ? "" : " AND o." + bucketField + " <= :cutoffBucket");
+        String select = "SELECT o." + id + " FROM " + getEntityName() + " o WHERE " + older;
+        String order = " ORDER BY o." + id;
+        String delete = "DELETE FROM " + getEntityName() + " o WHERE o." + id + " >= :first AND o." + id + " <= :last AND " + older;
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        if (!storage.isPrimitive()) {
+            bodyBuilder.appendFormalLine("if (cutoff == null) {");
+            bodyBuilder.appendFormalLine("    throw new IllegalArgumentException(\"The cutoff argument is required\");");
+            bodyBuilder.appendFormalLine("}");
+        }
+        bodyBuilder.appendFormalLine("javax.persistence.EntityManager em = " + entity + ".entityManager().getEntityManagerFactory().createEntityManager();");
+        bodyBuilder.appendFormalLine("long deleted = 0;");
+        bodyBuilder.appendFormalLine(idName + " cursor = afterId;");
+        bodyBuilder.appendFormalLine("try {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("while (true) {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("javax.persistence.TypedQuery<" + idName + "> query = cursor == null");
+        bodyBuilder.appendFormalLine("        ? em.createQuery(\"" + select + order + "\", " + idName + ".class)");
+        bodyBuilder.appendFormalLine("        : em.createQuery(\"" + select + " AND o." + id + " > :afterId" + order + "\", " + idName + ".class).setParameter(\"afterId\", cursor);");
+        bodyBuilder.appendFormalLine("query.setParameter(\"cutoff\", cutoff);");
+        if (bucket != null) {
+            bodyBuilder.appendFormalLine("query.setParameter(\"cutoffBucket\", " + bucket.getBucketOf(storage, "cutoff") + ");");
+        }
+        bodyBuilder.appendFormalLine("java.util.List<" + idName + "> ids = query.setMaxResults(" + chunkSize + ").getResultList();");
+        bodyBuilder.appendFormalLine("if (ids.isEmpty()) {");
+        bodyBuilder.appendFormalLine("    break;");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine(idName + " last = ids.get(ids.size() - 1);");
+        bodyBuilder.appendFormalLine("javax.persistence.EntityTransaction transaction = em.getTransaction();");
+        bodyBuilder.appendFormalLine("transaction.begin();");
+        bodyBuilder.appendFormalLine("try {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("javax.persistence.Query purge = em.createQuery(\"" + delete + "\");");
+        bodyBuilder.appendFormalLine("purge.setParameter(\"first\", ids.get(0)).setParameter(\"last\", last).setParameter(\"cutoff\", cutoff);");
+        if (bucket != null) {
+            bodyBuilder.appendFormalLine("purge.setParameter(\"cutoffBucket\", " + bucket.getBucketOf(storage, "cutoff") + ");");
+        }
+        bodyBuilder.appendFormalLine("deleted += purge.executeUpdate();");
+        bodyBuilder.appendFormalLine("transaction.commit();");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("} finally {");
+        bodyBuilder.appendFormalLine("    if (transaction.isActive()) {");
+        bodyBuilder.appendFormalLine("        transaction.rollback();");
+        bodyBuilder.appendFormalLine("    }");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("cursor = last;");
+        bodyBuilder.appendFormalLine("em.clear();");
+        bodyBuilder.appendFormalLine("if (ids.size() < " + chunkSize + ") {");
+        bodyBuilder.appendFormalLine("    break;");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("if (pauseMillis > 0) {");
+        bodyBuilder.indent();
+        bodyBuilder.appendFormalLine("try {");
+        bodyBuilder.appendFormalLine("    Thread.sleep(pauseMillis);");
+        bodyBuilder.appendFormalLine("} catch (InterruptedException e) {");
+        bodyBuilder.appendFormalLine("    // Stop between chunks; the returned lastId resumes the purge");
+        bodyBuilder.appendFormalLine("    Thread.currentThread().interrupt();");
+        bodyBuilder.appendFormalLine("    break;");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.indentRemove();
+        bodyBuilder.appendFormalLine("} finally {");
+        bodyBuilder.appendFormalLine("    em.close();");
+        bodyBuilder.appendFormalLine("}");
+        bodyBuilder.appendFormalLine("return new long[] { deleted, cursor == null ? -1L : cursor.longValue() };");
+
+        JavaType returnType = new JavaType(JavaType.LONG_PRIMITIVE.getFullyQualifiedTypeName(), 1, DataType.PRIMITIVE, null, null);
+        return new MethodMetadataBuilder(getId(), Modifier.PUBLIC | Modifier.STATIC, methodName, returnType, AnnotatedJavaType.convertFromJavaTypes(createdType,
+                idType, JavaType.LONG_PRIMITIVE), Arrays.asList(new JavaSymbolName("cutoff"), new JavaSymbolName("afterId"), new JavaSymbolName("pauseMillis")),
+                bodyBuilder);
+    }
+
+    private MethodMetadata getTimestampMethod(TimestampTemplate template) {
+
+		// Check if a method with the same signature already exists in the target type
+		MethodMetadata method = members.getDeclaredMethod(TimestampTemplate.CALLBACK_METHOD, new ArrayList<JavaType>());
+		if (method != null) {
+			// If it already exists, just return the method and omit its generation via the ITD
+			return method;
+		}
+
+		// Use the MethodMetadataBuilder for easy creation of MethodMetadata; the body is rendered once per template
+		MethodMetadataBuilder methodBuilder = new MethodMetadataBuilder(getId(), Modifier.PUBLIC, TimestampTemplate.CALLBACK_METHOD, JavaType.VOID_PRIMITIVE, new InvocableMemberBodyBuilder());
+		methodBuilder.setBody(template.getCallbackBody());
+		for (AnnotationMetadata annotation : template.getCallbackAnnotations()) {
+			methodBuilder.addAnnotation(annotation);
+		}
+		return methodBuilder.build(); // Build and return a MethodMetadata instance
+	}
+
     @Override
 	public String toString() {
         final ToStringBuilder builder = new ToStringBuilder(this);
@@ -188,8 +1040,8 @@ public class TimestampMetadata extends AbstractItdTypeDetailsProvidingMetadataIt
         final JavaSymbolName methodName = BeanInfoUtils
                 .getAccessorMethodName(field);
 
-        // See if the type itself declared the accessor
-        if (governorHasMethod(methodName)) {
+        // See if the type itself declared the accessor; inherited timestamp accessors were settled by isInherited
+        if (members.hasDeclaredMethod(methodName)) {
             return null;
         }
 
@@ -228,8 +1080,8 @@ public class TimestampMetadata extends AbstractItdTypeDetailsProvidingMetadataIt
         // Compute the mutator method parameters
         final JavaType parameterType = field.getFieldType();
 
-        // See if the type itself declared the mutator
-        if (governorHasMethod(methodName, parameterType)) {
+        // See if the type itself declared the mutator; inherited timestamp accessors were settled by isInherited
+        if (members.hasDeclaredMethod(methodName, parameterType)) {
             return null;
         }
 
@@ -1,12 +1,23 @@
 package com.rcaloras.roo.addon.timestamp;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
 import org.apache.felix.scr.annotations.Service;
 import org.osgi.service.component.ComponentContext;
 import org.springframework.roo.classpath.PhysicalTypeIdentifier;
 import org.springframework.roo.classpath.PhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.FieldMetadata;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.itd.AbstractItdMetadataProvider;
 import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.classpath.persistence.PersistenceMemberLocator;
+import org.springframework.roo.model.JavaSymbolName;
 import org.springframework.roo.model.JavaType;
 import org.springframework.roo.project.LogicalPath;
 
@@ -21,6 +32,23 @@ import org.springframework.roo.project.LogicalPath;
 @Service
 public final class TimestampMetadataProvider extends AbstractItdMetadataProvider {
 
+    @Reference private PersistenceMemberLocator persistenceMemberLocator;
+    @Reference private TimestampStatistics statistics;
+
+    // Roo notifies the provider for every change to a governor, often several times per edit, and most of them do not
+    // touch anything the ITD depends on. The most recent builds are kept so those notifications reuse them; the bound
+    // keeps deleted or long unused types from being pinned for the whole session.
+    private static final int RECENT_BUILDS = 1024;
+
+    private final Map<String, RecentBuild> recentBuilds = Collections.synchronizedMap(new LinkedHashMap<String, RecentBuild>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RecentBuild> eldest) {
+            return size() > RECENT_BUILDS;
+        }
+    });
+
     /**
      * The activate method for this OSGi component, this will be called by the OSGi container upon bundle activation 
      * (result of the 'addon install' command) 
@@ -41,14 +69,72 @@ public final class TimestampMetadataProvider extends AbstractItdMetadataProvider
     protected void deactivate(ComponentContext context) {
         metadataDependencyRegistry.deregisterDependency(PhysicalTypeIdentifier.getMetadataIdentiferType(), getProvidesType());
         removeMetadataTrigger(new JavaType(RooTimestamp.class.getName()));    
+        recentBuilds.clear();
     }
     
     /**
      * Return an instance of the Metadata offered by this add-on
      */
     protected ItdTypeDetailsProvidingMetadataItem getMetadata(String metadataIdentificationString, JavaType aspectName, PhysicalTypeMetadata governorPhysicalTypeMetadata, String itdFilename) {
+        long start = System.nanoTime();
+        FieldMetadata identifierField = getIdentifierField(governorPhysicalTypeMetadata);
+        GovernorMemberIndex members = new GovernorMemberIndex(governorPhysicalTypeMetadata.getMemberHoldingTypeDetails());
+
+        // Accessors inherited from source superclasses decide how the ITD reaches its fields, so changes to them must reach this ITD
+        for (String superclassId : members.getSuperclassIds()) {
+            metadataDependencyRegistry.registerDependency(superclassId, metadataIdentificationString);
+        }
+
+        // Reuse the last build if the governor's annotations and identifier are unchanged and its methods answer every
+        // lookup that build made the same way, so a burst of notifications for one type costs a single build
+        String inputs = getInputs(governorPhysicalTypeMetadata.getMemberHoldingTypeDetails(), identifierField);
+        RecentBuild recent = recentBuilds.get(metadataIdentificationString);
+        if (recent != null && recent.inputs.equals(inputs) && members.answersAsBefore(recent.answers)) {
+            statistics.recordGetMetadata(System.nanoTime() - start, true);
+            return recent.metadata;
+        }
+
         // Pass dependencies required by the metadata in through its constructor
-        return new TimestampMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata);
+        TimestampAnnotationValues annotationValues = new TimestampAnnotationValues(governorPhysicalTypeMetadata);
+        TimestampMetadata metadata = new TimestampMetadata(metadataIdentificationString, aspectName, governorPhysicalTypeMetadata, annotationValues, identifierField,
+                members);
+        recentBuilds.put(metadataIdentificationString, new RecentBuild(inputs, members.getAnswers(), metadata));
+        statistics.recordGetMetadata(System.nanoTime() - start, false);
+        return metadata;
+    }
+
+    /**
+     * Summarises the governor inputs the metadata reads besides its methods: every type annotation with its values
+     * (@RooTimestamp, the Roo JPA annotations, @Table, @EntityListeners) and the identifier field with its annotations.
+     */
+    private static String getInputs(ClassOrInterfaceTypeDetails governor, FieldMetadata identifierField) {
+        StringBuilder inputs = new StringBuilder();
+        if (governor != null) {
+            appendAnnotations(inputs, governor.getAnnotations());
+        }
+        if (identifierField != null) {
+            inputs.append('#').append(identifierField.getFieldName()).append(':').append(identifierField.getFieldType());
+            appendAnnotations(inputs, identifierField.getAnnotations());
+        }
+        return inputs.toString();
+    }
+
+    private static void appendAnnotations(StringBuilder inputs, List<AnnotationMetadata> annotations) {
+        for (AnnotationMetadata annotation : annotations) {
+            inputs.append('@').append(annotation.getAnnotationType()).append('(');
+            for (JavaSymbolName attributeName : annotation.getAttributeNames()) {
+                inputs.append(annotation.getAttribute(attributeName)).append(';');
+            }
+            inputs.append(')');
+        }
+    }
+    
+    /**
+     * Returns the single JPA identifier field of the governor, or null if it has none or a composite key
+     */
+    private FieldMetadata getIdentifierField(PhysicalTypeMetadata governorPhysicalTypeMetadata) {
+        List<FieldMetadata> identifierFields = persistenceMemberLocator.getIdentifierFields(governorPhysicalTypeMetadata.getMemberHoldingTypeDetails().getName());
+        return identifierFields.size() == 1 ? identifierFields.get(0) : null;
     }
     
     /**
@@ -71,4 +157,16 @@ public final class TimestampMetadataProvider extends AbstractItdMetadataProvider
     public String getProvidesType() {
         return TimestampMetadata.getMetadataIdentiferType();
     }
-}
\ No newline at end of file
+
+    private static final class RecentBuild {
+        private final String inputs;
+        private final Map<String, String> answers;
+        private final TimestampMetadata metadata;
+
+        private RecentBuild(String inputs, Map<String, String> answers, TimestampMetadata metadata) {
+            this.inputs = inputs;
+            this.answers = answers;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.rcaloras.roo.addon.timestamp;
 
+import org.springframework.roo.model.JavaPackage;
 import org.springframework.roo.model.JavaType;
 
 /**
@@ -21,11 +22,60 @@ public interface TimestampOperations {
      */
     void annotateType(JavaType type);
     
+    /**
+     * Annotate the provided Java type with the trigger of this add-on
+     * 
+     * @param type the type to annotate (required)
+     * @param version true to use 'updated' as the optimistic lock version, which also removes the version field of
+     *            the type's @RooJpaActiveRecord or @RooJpaEntity
+     */
+    void annotateType(JavaType type, boolean version);
+    
+    /**
+     * Annotate the provided Java type with the trigger of this add-on, configuring its timestamp fields. Only
+     * attributes that differ from the {@link RooTimestamp} defaults are written.
+     * 
+     * @param type the type to annotate (required)
+     * @param version see {@link #annotateType(JavaType, boolean)}
+     * @param created false to omit the 'created' field
+     * @param updated false to omit the 'updated' field
+     * @param createdField the name of the 'created' field (null for the default)
+     * @param updatedField the name of the 'updated' field (null for the default)
+     * @param createdColumn the column of the 'created' field (null for the default)
+     * @param updatedColumn the column of the 'updated' field (null for the default)
+     * @param precision fractional second digits of both columns (null for the database default)
+     * @param dateTimePattern the @DateTimeFormat pattern (null for the default)
+     */
+    void annotateType(JavaType type, boolean version, boolean created, boolean updated, String createdField, String updatedField, String createdColumn,
+            String updatedColumn, Integer precision, String dateTimePattern);
+    
     /**
      * Annotate all Java types with the trigger of this add-on
      */
     void annotateAll();
     
+    /**
+     * Install the TimestampClock support class that @RooTimestamp(clock = ...) can reference
+     * 
+     * @param javaPackage the package to create the class in (required)
+     */
+    void installClock(JavaPackage javaPackage);
+    
+    /**
+     * Install the TimestampListener and Timestamped support types that @RooTimestamp(listener = ...) can reference
+     * 
+     * @param javaPackage the package to create the types in (required)
+     */
+    void installListener(JavaPackage javaPackage);
+    
+    /**
+     * Install the TimestampHistoryWriter and TimestampHistory support types that @RooTimestamp(history = ...) can
+     * reference
+     * 
+     * @param javaPackage the package to create the types in (required)
+     */
+    void installHistory(JavaPackage javaPackage);
+    
     /**
      * Setup all add-on artifacts (dependencies in this case)
      */
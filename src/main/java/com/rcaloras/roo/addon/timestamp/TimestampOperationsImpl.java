@@ -1,10 +1,17 @@
 package com.rcaloras.roo.addon.timestamp;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang3.Validate;
 import org.apache.felix.scr.annotations.Component;
@@ -16,15 +23,15 @@ import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
 import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
 import org.springframework.roo.classpath.details.ImportMetadata;
 import org.springframework.roo.classpath.details.MemberFindingUtils;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
 import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.model.JavaPackage;
 import org.springframework.roo.model.JavaType;
+import org.springframework.roo.process.manager.FileManager;
 import org.springframework.roo.project.Dependency;
-import org.springframework.roo.project.DependencyScope;
-import org.springframework.roo.project.DependencyType;
+import org.springframework.roo.project.Path;
 import org.springframework.roo.project.ProjectOperations;
-import org.springframework.roo.project.Repository;
-import org.springframework.roo.support.util.XmlUtils;
-import org.w3c.dom.Element;
+import org.springframework.roo.support.logging.HandlerUtils;
 
 /**
  * Implementation of operations this add-on offers.
@@ -35,6 +42,13 @@ import org.w3c.dom.Element;
 @Service
 public class TimestampOperationsImpl implements TimestampOperations {
 
+	private static final Logger LOGGER = HandlerUtils.getLogger(TimestampOperationsImpl.class);
+
+	private static final JavaType ROO_JAVA_BEAN = new JavaType("org.springframework.roo.addon.javabean.RooJavaBean");
+	private static final JavaType ROO_TIMESTAMP = new JavaType(RooTimestamp.class.getName());
+	private static final List<JavaType> ROO_JPA_ANNOTATIONS = Arrays.asList(new JavaType("org.springframework.roo.addon.jpa.activerecord.RooJpaActiveRecord"),
+			new JavaType("org.springframework.roo.addon.jpa.entity.RooJpaEntity"));
+
 	/**
 	 * Use ProjectOperations to install new dependencies, plugins, properties, etc into the project configuration
 	 */
@@ -50,20 +64,15 @@ public class TimestampOperationsImpl implements TimestampOperations {
 	 */
 	@Reference private TypeManagementService typeManagementService;
 
+	/**
+	 * Use FileManager to flush a batch of written types before their metadata is regenerated
+	 */
+	@Reference private FileManager fileManager;
 
-
-
-
-	Repository snapshotRepo = new Repository("roo-timestamp-addon-snapshots", "Timestamp Roo add-on snapshot repository", 
-			"https://raw.github.com/rcaloras/rcaloras-mvn-repo/master/snapshots");
-
-	Repository releaseRepo = new Repository("roo-timestamp-addon-releases", "Timestamp Roo add-on release repository", 
-			"https://raw.github.com/rcaloras/rcaloras-mvn-repo/master/releases");
-
-	Dependency timestampDependency;
-	
-	
-	String version;
+	/**
+	 * Use TimestampStatistics to record what the operations cost
+	 */
+	@Reference private TimestampStatistics statistics;
 
 	/** {@inheritDoc} */
 	public boolean isCommandAvailable() {
@@ -73,125 +82,262 @@ public class TimestampOperationsImpl implements TimestampOperations {
 
 	/** {@inheritDoc} */
 	public void annotateType(JavaType javaType) {
-		// Use Roo's Assert type for null checks
-		Validate.notNull(javaType, "Java type required");
-
-		// Obtain ClassOrInterfaceTypeDetails for this java type
-		ClassOrInterfaceTypeDetails existing = typeLocationService.getTypeDetails(javaType);
-
-		// Test if the annotation already exists on the target type
-		if (existing != null && MemberFindingUtils.getAnnotationOfType(existing.getAnnotations(), new JavaType(RooTimestamp.class.getName())) == null) {
-			ClassOrInterfaceTypeDetailsBuilder classOrInterfaceTypeDetailsBuilder = new ClassOrInterfaceTypeDetailsBuilder(existing);
+		annotateType(javaType, false);
+	}
 
-			// Create JavaType instance for the add-ons trigger annotation
-			JavaType rooRooTimestamp = new JavaType(RooTimestamp.class.getName());
+	/** {@inheritDoc} */
+	public void annotateType(JavaType javaType, boolean version) {
+		annotateType(javaType, version, true, true, null, null, null, null, null, null);
+	}
 
-			// Create Annotation metadata
-			AnnotationMetadataBuilder annotationBuilder = new AnnotationMetadataBuilder(rooRooTimestamp);
+	/** {@inheritDoc} */
+	public void annotateType(JavaType javaType, boolean version, boolean created, boolean updated, String createdField, String updatedField,
+			String createdColumn, String updatedColumn, Integer precision, String dateTimePattern) {
+		// Use Roo's Assert type for null checks
+		Validate.notNull(javaType, "Java type required");
+		long start = System.nanoTime();
 
-			// Add annotation to target type
-			classOrInterfaceTypeDetailsBuilder.addAnnotation(annotationBuilder.build());
+		// Only non-default values are written, so the annotation stays as short as the configuration allows
+		AnnotationMetadataBuilder annotationBuilder = new AnnotationMetadataBuilder(ROO_TIMESTAMP);
+		if (version) {
+			annotationBuilder.addBooleanAttribute("version", true);
+		}
+		if (!created) {
+			annotationBuilder.addBooleanAttribute("created", false);
+		}
+		if (!updated) {
+			annotationBuilder.addBooleanAttribute("updated", false);
+		}
+		addStringAttribute(annotationBuilder, "createdField", createdField);
+		addStringAttribute(annotationBuilder, "updatedField", updatedField);
+		addStringAttribute(annotationBuilder, "createdColumn", createdColumn);
+		addStringAttribute(annotationBuilder, "updatedColumn", updatedColumn);
+		addStringAttribute(annotationBuilder, "dateTimePattern", dateTimePattern);
+		if (precision != null) {
+			Validate.isTrue(precision >= 0, "Precision must not be negative");
+			annotationBuilder.addIntegerAttribute("precision", precision);
+		}
 
+		// Obtain ClassOrInterfaceTypeDetails for this java type
+		ClassOrInterfaceTypeDetails annotated = addTimestampAnnotation(typeLocationService.getTypeDetails(javaType), annotationBuilder, version);
+		if (annotated != null) {
 			// Save changes to disk
-			typeManagementService.createOrUpdateTypeOnDisk(classOrInterfaceTypeDetailsBuilder.build());
+			typeManagementService.createOrUpdateTypeOnDisk(annotated);
+			statistics.recordTypeWrite();
 		}
+		statistics.recordAnnotateType(System.nanoTime() - start);
 	}
 
 	public void removeAnnotation(JavaType javaType){
+		long start = System.nanoTime();
 
 		// Use Roo's Assert type for null checks
 		Validate.notNull(javaType, "Java type required");
 
 		// Obtain ClassOrInterfaceTypeDetails for this java type
-		ClassOrInterfaceTypeDetails existing = typeLocationService.getTypeDetails(javaType);
-
-		// Test if the annotation is present
-		if (existing != null && MemberFindingUtils.getAnnotationOfType(existing.getAnnotations(), new JavaType(RooTimestamp.class.getName())) != null) {
-
-			ClassOrInterfaceTypeDetailsBuilder classOrInterfaceTypeDetailsBuilder = new ClassOrInterfaceTypeDetailsBuilder(existing);
-
-			JavaType rooTimestamp = new JavaType(RooTimestamp.class.getName());
-
-			// Add annotation to target type
-			classOrInterfaceTypeDetailsBuilder.removeAnnotation(rooTimestamp);
-		
+		ClassOrInterfaceTypeDetails unannotated = removeTimestampAnnotation(typeLocationService.getTypeDetails(javaType));
+		if (unannotated != null) {
 			// Save changes to disk
-			typeManagementService.createOrUpdateTypeOnDisk(classOrInterfaceTypeDetailsBuilder.build());
+			typeManagementService.createOrUpdateTypeOnDisk(unannotated);
+			statistics.recordTypeWrite();
 		}
+		statistics.recordAnnotateType(System.nanoTime() - start);
 	}
 
 	/** {@inheritDoc} */
 	public void annotateAll() {
 		// Use the TypeLocationService to scan project for all types with a specific annotation
-		for (JavaType type: typeLocationService.findTypesWithAnnotation(new JavaType("org.springframework.roo.addon.javabean.RooJavaBean"))) {
-			annotateType(type);
-		}
+		applyBatch(typeLocationService.findTypesWithAnnotation(ROO_JAVA_BEAN), true);
 	}
 
 	public void removeAllAnnotations(){
 		// Use the TypeLocationService to scan project for all types with a specific annotation
-		for (JavaType type: typeLocationService.findTypesWithAnnotation(new JavaType(RooTimestamp.class.getName()))) {
-			removeAnnotation(type);
+		applyBatch(typeLocationService.findTypesWithAnnotation(ROO_TIMESTAMP), false);
+	}
+
+	private static void addStringAttribute(AnnotationMetadataBuilder annotationBuilder, String name, String value) {
+		if (value != null && value.trim().length() > 0) {
+			annotationBuilder.addStringAttribute(name, value.trim());
 		}
 	}
 
+	/**
+	 * Returns a copy of the given type with @RooTimestamp added, or null if the type is missing or already annotated
+	 */
+	private ClassOrInterfaceTypeDetails addTimestampAnnotation(ClassOrInterfaceTypeDetails existing, AnnotationMetadataBuilder annotationBuilder, boolean version) {
+		// Test if the annotation already exists on the target type
+		if (existing == null || MemberFindingUtils.getAnnotationOfType(existing.getAnnotations(), ROO_TIMESTAMP) != null) {
+			return null;
+		}
+		ClassOrInterfaceTypeDetailsBuilder classOrInterfaceTypeDetailsBuilder = new ClassOrInterfaceTypeDetailsBuilder(existing);
 
+		// Add annotation to target type
+		if (version) {
+			removeRooVersionField(classOrInterfaceTypeDetailsBuilder, existing);
+		}
+		classOrInterfaceTypeDetailsBuilder.addAnnotation(annotationBuilder.build());
+		return classOrInterfaceTypeDetailsBuilder.build();
+	}
 
-	/** {@inheritDoc} */
-	public void setup() {
-		
-		initialize();
-		
-		//Add the appropriate repository 
-		if(version.toLowerCase().contains("snapshot")){
-			projectOperations.addRepository("", snapshotRepo);
+	/**
+	 * Sets versionField = "" on the type's Roo JPA annotation, so 'updated' is the only @Version column
+	 */
+	private void removeRooVersionField(ClassOrInterfaceTypeDetailsBuilder classOrInterfaceTypeDetailsBuilder, ClassOrInterfaceTypeDetails existing) {
+		for (JavaType rooJpa : ROO_JPA_ANNOTATIONS) {
+			AnnotationMetadata rooAnnotation = MemberFindingUtils.getAnnotationOfType(existing.getAnnotations(), rooJpa);
+			if (rooAnnotation != null) {
+				AnnotationMetadataBuilder rooAnnotationBuilder = new AnnotationMetadataBuilder(rooAnnotation);
+				rooAnnotationBuilder.addStringAttribute("versionField", "");
+				classOrInterfaceTypeDetailsBuilder.updateTypeAnnotation(rooAnnotationBuilder.build());
+			}
 		}
-		else{
-			projectOperations.addRepository("", releaseRepo);
+	}
+
+	/**
+	 * Returns a copy of the given type with @RooTimestamp removed, or null if the type is missing or not annotated
+	 */
+	private ClassOrInterfaceTypeDetails removeTimestampAnnotation(ClassOrInterfaceTypeDetails existing) {
+		// Test if the annotation is present
+		if (existing == null || MemberFindingUtils.getAnnotationOfType(existing.getAnnotations(), ROO_TIMESTAMP) == null) {
+			return null;
+		}
+		ClassOrInterfaceTypeDetailsBuilder classOrInterfaceTypeDetailsBuilder = new ClassOrInterfaceTypeDetailsBuilder(existing);
+
+		// Remove annotation from target type
+		classOrInterfaceTypeDetailsBuilder.removeAnnotation(ROO_TIMESTAMP);
+		return classOrInterfaceTypeDetailsBuilder.build();
+	}
+
+	/**
+	 * Adds or removes @RooTimestamp on many types at once. All types are looked up and changed before the first one is
+	 * written, the changed compilation units are written in one pass, and a single scan then lets Roo regenerate the ITD
+	 * of each changed type once through its normal physical type notification.
+	 */
+	private void applyBatch(Collection<JavaType> types, boolean annotate) {
+		long start = System.nanoTime();
+
+		List<ClassOrInterfaceTypeDetails> existingTypes = new ArrayList<ClassOrInterfaceTypeDetails>(types.size());
+		for (JavaType type : types) {
+			ClassOrInterfaceTypeDetails existing = typeLocationService.getTypeDetails(type);
+			if (existing != null) {
+				existingTypes.add(existing);
+			}
 		}
+		long lookedUp = System.nanoTime();
+
+		// Copying one annotation into a builder is far cheaper than handing it to another thread
+		List<ClassOrInterfaceTypeDetails> changedTypes = new ArrayList<ClassOrInterfaceTypeDetails>(existingTypes.size());
+		List<Long> buildNanos = new ArrayList<Long>(existingTypes.size());
+		for (ClassOrInterfaceTypeDetails existing : existingTypes) {
+			long typeStart = System.nanoTime();
+			ClassOrInterfaceTypeDetails changed = annotate ? addTimestampAnnotation(existing, new AnnotationMetadataBuilder(ROO_TIMESTAMP), false)
+					: removeTimestampAnnotation(existing);
+			if (changed != null) {
+				changedTypes.add(changed);
+				buildNanos.add(System.nanoTime() - typeStart);
+			}
+		}
+		long built = System.nanoTime();
+
+		// Each changed type is recorded like a single annotateType: building its copy plus writing it
+		for (int i = 0; i < changedTypes.size(); i++) {
+			long typeStart = System.nanoTime();
+			typeManagementService.createOrUpdateTypeOnDisk(changedTypes.get(i));
+			statistics.recordTypeWrite();
+			statistics.recordAnnotateType(buildNanos.get(i) + System.nanoTime() - typeStart);
+		}
+		long written = System.nanoTime();
+
+		// Deliver the file events now, so the ITDs are regenerated (or deleted) within this command and its timings
+		fileManager.scan();
+		long regenerated = System.nanoTime();
+
+		LOGGER.info((annotate ? "Annotated " : "Removed annotation from ") + changedTypes.size() + " of " + existingTypes.size()
+				+ " types (lookup " + millis(start, lookedUp) + " ms, build " + millis(lookedUp, built) + " ms, write "
+				+ millis(built, written) + " ms, metadata " + millis(written, regenerated) + " ms)");
+	}
+
+	private static long millis(long fromNanos, long toNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(toNanos - fromNanos);
+	}
+
+	/** {@inheritDoc} */
+	public void installClock(JavaPackage javaPackage) {
+		installSupportType(javaPackage, "TimestampClock");
+	}
+
+	/** {@inheritDoc} */
+	public void installListener(JavaPackage javaPackage) {
+		installSupportType(javaPackage, "Timestamped");
+		installSupportType(javaPackage, "TimestampListener");
+	}
+
+	/** {@inheritDoc} */
+	public void installHistory(JavaPackage javaPackage) {
+		installSupportType(javaPackage, "TimestampHistory");
+		installSupportType(javaPackage, "TimestampHistoryWriter");
+	}
+
+	/**
+	 * Copies a support class shipped with this add-on as "<simpleName>-template._java" into the given package of the
+	 * focused module, so that generated ITDs can reference it at runtime without depending on the add-on jar.
+	 */
+	private void installSupportType(JavaPackage javaPackage, String simpleName) {
+		Validate.notNull(javaPackage, "Java package required");
+
+		String template = readTemplate(simpleName + "-template._java");
+		String contents = template.replace("__PACKAGE__", javaPackage.getFullyQualifiedPackageName());
+		String relativePath = javaPackage.getFullyQualifiedPackageName().replace('.', File.separatorChar) + File.separatorChar + simpleName + ".java";
+		fileManager.createOrUpdateTextFileIfRequired(projectOperations.getPathResolver().getFocusedIdentifier(Path.SRC_MAIN_JAVA, relativePath), contents, false);
+	}
+
+	private String readTemplate(String templateName) {
+		InputStream inputStream = getClass().getResourceAsStream(templateName);
+		Validate.notNull(inputStream, "Template '" + templateName + "' not found");
+		try {
+			Reader reader = new InputStreamReader(inputStream, "UTF-8");
+			StringBuilder contents = new StringBuilder();
+			char[] buffer = new char[4096];
+			for (int read = reader.read(buffer); read != -1; read = reader.read(buffer)) {
+				contents.append(buffer, 0, read);
+			}
+			return contents.toString();
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to read template '" + templateName + "'", e);
+		} finally {
+			try {
+				inputStream.close();
+			} catch (IOException ignored) {
+			}
+		}
+	}
+
+	/** {@inheritDoc} */
+	public void setup() {
+		TimestampAddonDescriptor descriptor = TimestampAddonDescriptor.getInstance();
+
+		// Add the appropriate repository
+		projectOperations.addRepository("", descriptor.getRepository());
 
 		List<Dependency> dependencies = new ArrayList<Dependency>();
 
-		// Install the dependency on the add-on jar (
-		dependencies.add(timestampDependency);
+		// Install the dependency on the add-on jar
+		dependencies.add(descriptor.getAddonDependency());
 
 		// Install dependencies defined in external XML file
-		for (Element dependencyElement : XmlUtils.findElements("/configuration/batch/dependencies/dependency", XmlUtils.getConfiguration(getClass()))) {
-			dependencies.add(new Dependency(dependencyElement));
-		}
+		dependencies.addAll(descriptor.getConfiguredDependencies());
 
 		// Add all new dependencies to pom.xml
 		projectOperations.addDependencies("", dependencies);
 	}
 
-	
-	private void initialize(){
-		
-		Properties properties = new Properties();
-		try {
-			properties.load(this.getClass().getResourceAsStream("/project.properties"));
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-		}
-		
-		version = properties.getProperty("version");
-		timestampDependency = new Dependency("com.rcaloras.roo.addon.timestamp", "com.rcaloras.roo.addon.timestamp",
-				version, DependencyType.JAR, DependencyScope.PROVIDED);
-	}
-	public void remove(){
-		
-		initialize();
+	/** {@inheritDoc} */
+	public void remove() {
+		TimestampAddonDescriptor descriptor = TimestampAddonDescriptor.getInstance();
 		removeAllAnnotations();
 
-		//Remove the appropriate repository 
-		if(version.toLowerCase().contains("snapshot")){
-			projectOperations.removeRepository("", snapshotRepo);
-		}
-		else{
-			projectOperations.removeRepository("", releaseRepo);
-		}
-		projectOperations.removeDependency("", timestampDependency);
-
+		// Remove the appropriate repository
+		projectOperations.removeRepository("", descriptor.getRepository());
+		projectOperations.removeDependency("", descriptor.getAddonDependency());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,50 @@
+package com.rcaloras.roo.addon.timestamp;
+
+/**
+ * Collects counters and timings of this add-on so its cost in the Roo shell can be inspected with
+ * {@code timestamp stats}.
+ *
+ * @since 1.1
+ */
+public interface TimestampStatistics {
+
+    /**
+     * Record one call of {@link TimestampMetadataProvider}'s getMetadata
+     * 
+     * @param nanos the time spent
+     * @param reused true if unchanged inputs let the previous build be returned
+     */
+    void recordGetMetadata(long nanos, boolean reused);
+
+    /**
+     * Record @RooTimestamp being added to or removed from one type, alone or as part of a batch
+     * 
+     * @param nanos the time spent on that type
+     */
+    void recordAnnotateType(long nanos);
+
+    /**
+     * Record one compilation unit written to disk by the operations
+     */
+    void recordTypeWrite();
+
+    /**
+     * Record one *_Roo_Timestamp.aj file created or updated by Roo
+     * 
+     * @param bytes the size of the file after the write
+     */
+    void recordItdWrite(long bytes);
+
+    /**
+     * Record one *_Roo_Timestamp.aj file deleted by Roo
+     */
+    void recordItdDelete();
+
+    /**
+     * Produce a report of everything recorded since the component was activated
+     * 
+     * @param json true for a single JSON object, false for human readable lines
+     * @return the report (never null)
+     */
+    String getReport(boolean json);
+}
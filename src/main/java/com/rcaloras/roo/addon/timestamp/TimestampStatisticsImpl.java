@@ -0,0 +1,108 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Service;
+
+/**
+ * Implementation of {@link TimestampStatistics} keeping counters in memory and the most recent timings in fixed-size
+ * windows for percentiles.
+ *
+ * @since 1.1
+ */
+@Component
+@Service
+public class TimestampStatisticsImpl implements TimestampStatistics {
+
+    private final AtomicLong metadataBuilds = new AtomicLong();
+    private final AtomicLong metadataReuses = new AtomicLong();
+    private final AtomicLong annotatedTypes = new AtomicLong();
+    private final AtomicLong typeWrites = new AtomicLong();
+    private final AtomicLong itdWrites = new AtomicLong();
+    private final AtomicLong itdBytesWritten = new AtomicLong();
+    private final AtomicLong itdDeletes = new AtomicLong();
+    private final Timings getMetadataTimings = new Timings();
+    private final Timings annotateTypeTimings = new Timings();
+
+    /** {@inheritDoc} */
+    public void recordGetMetadata(long nanos, boolean reused) {
+        (reused ? metadataReuses : metadataBuilds).incrementAndGet();
+        getMetadataTimings.record(nanos);
+    }
+
+    /** {@inheritDoc} */
+    public void recordAnnotateType(long nanos) {
+        annotatedTypes.incrementAndGet();
+        annotateTypeTimings.record(nanos);
+    }
+
+    /** {@inheritDoc} */
+    public void recordTypeWrite() {
+        typeWrites.incrementAndGet();
+    }
+
+    /** {@inheritDoc} */
+    public void recordItdWrite(long bytes) {
+        itdWrites.incrementAndGet();
+        itdBytesWritten.addAndGet(bytes);
+    }
+
+    /** {@inheritDoc} */
+    public void recordItdDelete() {
+        itdDeletes.incrementAndGet();
+    }
+
+    /** {@inheritDoc} */
+    public String getReport(boolean json) {
+        long[] getMetadata = getMetadataTimings.getPercentiles();
+        long[] annotateType = annotateTypeTimings.getPercentiles();
+        if (json) {
+            return "{\"metadataBuilds\":" + metadataBuilds.get() + ",\"metadataReuses\":" + metadataReuses.get() + ",\"typeWrites\":" + typeWrites.get() + ",\"itdWrites\":" + itdWrites.get()
+                    + ",\"itdBytesWritten\":" + itdBytesWritten.get() + ",\"itdDeletes\":" + itdDeletes.get() + ",\"annotatedTypes\":" + annotatedTypes.get()
+                    + ",\"getMetadataP50Micros\":" + getMetadata[0] + ",\"getMetadataP99Micros\":" + getMetadata[1]
+                    + ",\"annotateTypeP50Micros\":" + annotateType[0] + ",\"annotateTypeP99Micros\":" + annotateType[1] + "}";
+        }
+        StringBuilder report = new StringBuilder();
+        report.append("Metadata builds:        ").append(metadataBuilds.get()).append('\n');
+        report.append("Metadata reuses:        ").append(metadataReuses.get()).append('\n');
+        report.append("Type writes:            ").append(typeWrites.get()).append('\n');
+        report.append("ITD writes:             ").append(itdWrites.get()).append(" (").append(itdBytesWritten.get() / 1024).append(" KB)\n");
+        report.append("ITD deletes:            ").append(itdDeletes.get()).append('\n');
+        report.append("Annotated types:        ").append(annotatedTypes.get()).append('\n');
+        report.append("getMetadata p50/p99:    ").append(getMetadata[0]).append(" / ").append(getMetadata[1]).append(" us\n");
+        report.append("annotateType p50/p99:   ").append(annotateType[0]).append(" / ").append(annotateType[1]).append(" us");
+        return report.toString();
+    }
+
+    /**
+     * The most recent timings of one operation, kept in a ring buffer so memory stays constant
+     */
+    private static final class Timings {
+        private static final int WINDOW = 4096;
+
+        private final long[] samples = new long[WINDOW];
+        private int count;
+
+        synchronized void record(long nanos) {
+            samples[count % WINDOW] = nanos;
+            count++;
+        }
+
+        /**
+         * @return the p50 and p99 of the window in microseconds, or zeros if nothing was recorded
+         */
+        synchronized long[] getPercentiles() {
+            int size = Math.min(count, WINDOW);
+            if (size == 0) {
+                return new long[] { 0, 0 };
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            return new long[] { TimeUnit.NANOSECONDS.toMicros(sorted[(size - 1) / 2]),
+                    TimeUnit.NANOSECONDS.toMicros(sorted[(int) Math.ceil(size * 0.99) - 1]) };
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import org.springframework.roo.model.JavaType;
+
+/**
+ * The Java types a generated timestamp field can be stored as, selected with {@link RooTimestamp#storage()}.
+ *
+ * @since 1.1
+ */
+enum TimestampStorage {
+
+    /**
+     * A mutable {@code java.util.Date} mapped with {@code @Temporal(TIMESTAMP)} (default)
+     */
+    DATE(new JavaType("java.util.Date"), true, true, "new java.util.Date()", "new java.util.Date(%s)"),
+
+    /**
+     * An immutable {@code java.time.Instant}; requires JPA 2.2 or an attribute converter
+     */
+    INSTANT(new JavaType("java.time.Instant"), false, false, "java.time.Instant.now()", "java.time.Instant.ofEpochMilli(%s)"),
+
+    /**
+     * An immutable {@code java.time.LocalDateTime}; requires JPA 2.2 or an attribute converter
+     */
+    LOCAL_DATE_TIME(new JavaType("java.time.LocalDateTime"), false, true, "java.time.LocalDateTime.now()",
+            "java.time.LocalDateTime.ofInstant(java.time.Instant.ofEpochMilli(%s), java.time.ZoneId.systemDefault())"),
+
+    /**
+     * A primitive {@code long} holding epoch milliseconds; the generated callback is allocation-free
+     */
+    EPOCH_MILLIS(JavaType.LONG_PRIMITIVE, false, false, "System.currentTimeMillis()", "%s");
+
+    private final JavaType fieldType;
+    private final boolean temporal;
+    private final boolean formattable;
+    private final String nowExpression;
+    private final String fromMillisFormat;
+
+    private TimestampStorage(JavaType fieldType, boolean temporal, boolean formattable, String nowExpression, String fromMillisFormat) {
+        this.fieldType = fieldType;
+        this.temporal = temporal;
+        this.formattable = formattable;
+        this.nowExpression = nowExpression;
+        this.fromMillisFormat = fromMillisFormat;
+    }
+
+    /**
+     * @return the type of the generated field and its accessors
+     */
+    JavaType getFieldType() {
+        return fieldType;
+    }
+
+    /**
+     * @return true if the field needs {@code @Temporal(TIMESTAMP)} to be mapped
+     */
+    boolean isTemporal() {
+        return temporal;
+    }
+
+    /**
+     * @return true if Spring's {@code @DateTimeFormat} pattern applies to the field type
+     */
+    boolean isFormattable() {
+        return formattable;
+    }
+
+    /**
+     * @return true if the field type is a primitive, so an unset value is zero rather than null
+     */
+    boolean isPrimitive() {
+        return fieldType.isPrimitive();
+    }
+
+    /**
+     * @return a Java expression evaluating to the current time in the field type
+     */
+    String getNowExpression() {
+        return nowExpression;
+    }
+
+    /**
+     * @param millis a Java expression evaluating to epoch milliseconds
+     * @return a Java expression converting the milliseconds to the field type
+     */
+    String getFromMillisExpression(String millis) {
+        return String.format(fromMillisFormat, millis);
+    }
+
+    /**
+     * @param value a Java expression of the field type that has been set
+     * @return a Java expression converting the value to epoch milliseconds
+     */
+    String getToMillisExpression(String value) {
+        switch (this) {
+        case DATE:
+            return value + ".getTime()";
+        case INSTANT:
+            return value + ".toEpochMilli()";
+        case LOCAL_DATE_TIME:
+            return value + ".atZone(java.time.ZoneId.systemDefault()).toInstant().toEpochMilli()";
+        default:
+            return value;
+        }
+    }
+
+    /**
+     * @return true if the field type is mutable, so created and updated must not share an instance
+     */
+    boolean isMutable() {
+        return this == DATE;
+    }
+
+    /**
+     * @param value a Java expression of the field type
+     * @return a Java condition that is true if the value has not been set yet
+     */
+    String getUnsetCondition(String value) {
+        return isPrimitive() ? value + " == 0L" : value + " == null";
+    }
+
+    /**
+     * Parses the value of {@link RooTimestamp#storage()}.
+     *
+     * @param storage the attribute value (case insensitive; null means the default)
+     * @return the storage mode (never null)
+     */
+    static TimestampStorage fromAttribute(String storage) {
+        if (storage == null || storage.length() == 0) {
+            return DATE;
+        }
+        try {
+            return valueOf(storage.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported @RooTimestamp storage '" + storage + "'; expected one of DATE, INSTANT, LOCAL_DATE_TIME, EPOCH_MILLIS", e);
+        }
+    }
+}
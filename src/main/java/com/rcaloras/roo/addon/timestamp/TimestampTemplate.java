@@ -0,0 +1,309 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.roo.classpath.details.BeanInfoUtils;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadata;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+
+/**
+ * Holds the parts of a Timestamp ITD that do not depend on the governor: field types, field and callback annotations
+ * and the callback body. Templates are immutable and cached per effective configuration, so every
+ * {@link TimestampMetadata} built with the same configuration reuses the same instances.
+ *
+ * @since 1.1
+ */
+final class TimestampTemplate {
+
+    static final JavaType COLUMN = new JavaType("javax.persistence.Column");
+    static final JavaType DATE_TIME_FORMAT = new JavaType("org.springframework.format.annotation.DateTimeFormat");
+    static final JavaType GENERATED = new JavaType("org.hibernate.annotations.Generated");
+    static final JavaType TEMPORAL = new JavaType("javax.persistence.Temporal");
+    static final JavaType PRE_PERSIST = new JavaType("javax.persistence.PrePersist");
+    static final JavaType PRE_UPDATE = new JavaType("javax.persistence.PreUpdate");
+    static final JavaType VERSION = new JavaType("javax.persistence.Version");
+
+    static final JavaSymbolName CALLBACK_METHOD = new JavaSymbolName("onUpdate");
+    static final JavaSymbolName IMPORT_FIELD = new JavaSymbolName("timestampImport");
+
+    private static final String DATABASE_DEFAULT = " DEFAULT CURRENT_TIMESTAMP";
+
+    private static final ConcurrentMap<String, TimestampTemplate> TEMPLATES = new ConcurrentHashMap<String, TimestampTemplate>();
+
+    private final JavaType fieldType;
+    private final JavaSymbolName createdField;
+    private final JavaSymbolName updatedField;
+    private final JavaSymbolName bucketField;
+    private final List<AnnotationMetadata> createdAnnotations;
+    private final List<AnnotationMetadata> updatedAnnotations;
+    private final List<AnnotationMetadata> callbackAnnotations;
+    private final String callbackBody;
+    private final String nowDeclaration;
+    private final String nowValue;
+    private final String nowMillis;
+
+    /**
+     * Returns the shared template for the given configuration, creating it on first use.
+     *
+     * @param annotationValues the governor's {@link RooTimestamp} values (required)
+     * @param createdInherited true if a superclass declares the 'created' accessors, so the callback must use them
+     * @param updatedInherited true if a superclass declares the 'updated' accessors, so the callback must use them
+     * @return the template (never null)
+     */
+    static TimestampTemplate forConfiguration(TimestampAnnotationValues annotationValues, boolean createdInherited, boolean updatedInherited) {
+        String key = getKey(annotationValues) + '|' + createdInherited + '|' + updatedInherited;
+        TimestampTemplate template = TEMPLATES.get(key);
+        if (template == null) {
+            TimestampTemplate created = new TimestampTemplate(annotationValues, createdInherited, updatedInherited);
+            template = TEMPLATES.putIfAbsent(key, created);
+            if (template == null) {
+                template = created;
+            }
+        }
+        return template;
+    }
+
+    private static String getKey(TimestampAnnotationValues annotationValues) {
+        // The listener only changes governor-specific parts, so it is not part of the key
+        return annotationValues.getStorage().name() + '|' + annotationValues.getDateTimePattern() + '|' + annotationValues.getClock()
+                + '|' + annotationValues.isDatabaseGenerated() + '|' + annotationValues.isVersion()
+                + '|' + annotationValues.getBucket() + '|' + annotationValues.isImportMode()
+                + '|' + annotationValues.getCreatedField() + '|' + annotationValues.getCreatedColumn()
+                + '|' + annotationValues.getUpdatedField() + '|' + annotationValues.getUpdatedColumn() + '|' + annotationValues.getPrecision();
+    }
+
+    private TimestampTemplate(TimestampAnnotationValues annotationValues, boolean createdInherited, boolean updatedInherited) {
+        TimestampStorage storage = annotationValues.getStorage();
+        fieldType = storage.getFieldType();
+        createdField = annotationValues.getCreatedField();
+        updatedField = annotationValues.getUpdatedField();
+        bucketField = createdField == null || annotationValues.getBucket() == null ? null : new JavaSymbolName(createdField.getSymbolName() + "Bucket");
+
+        List<AnnotationMetadata> annotations = new ArrayList<AnnotationMetadata>();
+        if (storage.isTemporal()) {
+            AnnotationMetadataBuilder temporal = new AnnotationMetadataBuilder(TEMPORAL);
+            temporal.addEnumAttribute("value", "javax.persistence.TemporalType", "TIMESTAMP");
+            annotations.add(temporal.build());
+        }
+        if (storage.isFormattable()) {
+            AnnotationMetadataBuilder dateTimeFormat = new AnnotationMetadataBuilder(DATE_TIME_FORMAT);
+            dateTimeFormat.addStringAttribute("pattern", annotationValues.getDateTimePattern());
+            annotations.add(dateTimeFormat.build());
+        }
+
+        boolean databaseGenerated = annotationValues.isDatabaseGenerated();
+        int precision = annotationValues.getPrecision();
+        createdAnnotations = getFieldAnnotations(annotations, annotationValues.getCreatedColumn(), precision, databaseGenerated ? "INSERT" : null, false);
+        updatedAnnotations = getFieldAnnotations(annotations, annotationValues.getUpdatedColumn(), precision, databaseGenerated ? "ALWAYS" : null,
+                annotationValues.isVersion());
+
+        if (databaseGenerated) {
+            // The database owns both columns and the ORM reads them back, so there is no Java callback
+            callbackAnnotations = Collections.emptyList();
+            callbackBody = null;
+            nowDeclaration = null;
+            nowValue = null;
+            nowMillis = null;
+            return;
+        }
+
+        callbackAnnotations = Collections.unmodifiableList(Arrays.asList(new AnnotationMetadataBuilder(PRE_PERSIST).build(),
+                new AnnotationMetadataBuilder(PRE_UPDATE).build()));
+
+        JavaType clock = annotationValues.getClock();
+        if (clock == null && !storage.isMutable() && !storage.isPrimitive()) {
+            // The java.time types read the system clock directly to keep their full precision
+            nowDeclaration = storage.getFieldType().getFullyQualifiedTypeName() + " now = " + storage.getNowExpression() + ";";
+            nowValue = "now";
+            nowMillis = storage.getToMillisExpression("now");
+        } else {
+            // Read the clock once so created and updated agree on insert
+            String clockType = clock == null ? "System" : clock.getFullyQualifiedTypeName();
+            nowDeclaration = "long now = " + clockType + ".currentTimeMillis();";
+            nowValue = storage.getFromMillisExpression("now");
+            nowMillis = "now";
+        }
+
+        // The ORM maintains a version 'updated', so only an enabled 'created' may be left for the callback
+        String created = createdField == null ? null : getReadExpression(createdField, fieldType, createdInherited);
+        String updated = updatedField == null || annotationValues.isVersion() ? null : getReadExpression(updatedField, fieldType, updatedInherited);
+        if (created == null && updated == null) {
+            callbackBody = null;
+            return;
+        }
+
+        // Recomputed on every flush so the bucket follows any change made to 'created'
+        String bucketAssignment = bucketField == null ? null : "this." + bucketField + " = " + annotationValues.getBucket().getBucketOf(storage, created) + ";";
+
+        InvocableMemberBodyBuilder bodyBuilder = new InvocableMemberBodyBuilder();
+        String now = nowValue;
+        boolean importMode = annotationValues.isImportMode();
+        if (importMode) {
+            // While the thread imports, supplied values are kept and only missing ones are filled
+            StringBuilder allSet = new StringBuilder("importing");
+            for (String field : Arrays.asList(created, updated)) {
+                if (field != null) {
+                    allSet.append(" && !(").append(storage.getUnsetCondition(field)).append(')');
+                }
+            }
+            bodyBuilder.appendFormalLine("boolean importing = " + IMPORT_FIELD + ".get() != null;");
+            bodyBuilder.appendFormalLine("if (" + allSet + ") {");
+            if (bucketAssignment != null) {
+                // Only the clock read is skipped; an imported 'created' still needs its bucket
+                bodyBuilder.appendFormalLine("    " + bucketAssignment);
+            }
+            bodyBuilder.appendFormalLine("    return;");
+            bodyBuilder.appendFormalLine("}");
+        }
+        bodyBuilder.appendFormalLine(nowDeclaration);
+        if (created != null) {
+            bodyBuilder.appendFormalLine("if (" + storage.getUnsetCondition(created) + ") {");
+            bodyBuilder.appendFormalLine("    " + getAssignment(createdField, createdInherited, now));
+            bodyBuilder.appendFormalLine("}");
+        }
+        if (updated != null) {
+            // Each assignment converts separately, so a mutable java.util.Date is never shared between the fields
+            if (importMode) {
+                bodyBuilder.appendFormalLine("if (!importing || " + storage.getUnsetCondition(updated) + ") {");
+                bodyBuilder.appendFormalLine("    " + getAssignment(updatedField, updatedInherited, now));
+                bodyBuilder.appendFormalLine("}");
+            } else {
+                bodyBuilder.appendFormalLine(getAssignment(updatedField, updatedInherited, now));
+            }
+        }
+        if (bucketAssignment != null) {
+            bodyBuilder.appendFormalLine(bucketAssignment);
+        }
+        callbackBody = bodyBuilder.getOutput();
+    }
+
+    /**
+     * Returns how the callback reads a timestamp: its own field, or the getter when a superclass owns the field.
+     */
+    static String getReadExpression(JavaSymbolName field, JavaType fieldType, boolean inherited) {
+        return inherited ? "this." + BeanInfoUtils.getAccessorMethodName(field, fieldType) + "()" : "this." + field;
+    }
+
+    private static String getAssignment(JavaSymbolName field, boolean inherited, String value) {
+        return inherited ? "this." + BeanInfoUtils.getMutatorMethodName(field) + "(" + value + ");" : "this." + field + " = " + value + ";";
+    }
+
+    /**
+     * Adds the field's @Column, and for database generated values its @Generated, to the shared field annotations.
+     *
+     * @param column the column name (null for the provider's default)
+     * @param precision fractional second digits of the column (negative for the database default)
+     * @param generationTime the Hibernate GenerationTime, or null if the JVM sets the value
+     * @param version true to make the field the optimistic lock version
+     */
+    private static List<AnnotationMetadata> getFieldAnnotations(List<AnnotationMetadata> annotations, String column, int precision, String generationTime,
+            boolean version) {
+        List<AnnotationMetadata> fieldAnnotations = new ArrayList<AnnotationMetadata>(annotations);
+        AnnotationMetadataBuilder columnBuilder = new AnnotationMetadataBuilder(COLUMN);
+        boolean mapped = false;
+        if (column != null) {
+            columnBuilder.addStringAttribute("name", column);
+            mapped = true;
+        }
+        String columnType = precision < 0 ? "TIMESTAMP" : "TIMESTAMP(" + precision + ")";
+        if (generationTime != null) {
+            columnBuilder.addBooleanAttribute("insertable", false);
+            columnBuilder.addBooleanAttribute("updatable", false);
+            columnBuilder.addStringAttribute("columnDefinition", columnType + DATABASE_DEFAULT);
+            mapped = true;
+        } else if (precision >= 0) {
+            columnBuilder.addStringAttribute("columnDefinition", columnType);
+            mapped = true;
+        }
+        if (mapped) {
+            fieldAnnotations.add(columnBuilder.build());
+        }
+        if (generationTime != null) {
+            AnnotationMetadataBuilder generated = new AnnotationMetadataBuilder(GENERATED);
+            generated.addEnumAttribute("value", "org.hibernate.annotations.GenerationTime", generationTime);
+            fieldAnnotations.add(generated.build());
+        }
+        if (version) {
+            // The ORM seeds and advances the version timestamp itself on every insert and update
+            fieldAnnotations.add(new AnnotationMetadataBuilder(VERSION).build());
+        }
+        return Collections.unmodifiableList(fieldAnnotations);
+    }
+
+    /**
+     * @return the name of the generated 'created' field, or null if it is disabled
+     */
+    JavaSymbolName getCreatedField() {
+        return createdField;
+    }
+
+    /**
+     * @return the name of the generated 'updated' field, or null if it is disabled
+     */
+    JavaSymbolName getUpdatedField() {
+        return updatedField;
+    }
+
+    /**
+     * @return the name of the derived bucket field, or null if there is none
+     */
+    JavaSymbolName getBucketField() {
+        return bucketField;
+    }
+
+    JavaType getFieldType() {
+        return fieldType;
+    }
+
+    List<AnnotationMetadata> getCreatedAnnotations() {
+        return createdAnnotations;
+    }
+
+    List<AnnotationMetadata> getUpdatedAnnotations() {
+        return updatedAnnotations;
+    }
+
+    /**
+     * @return true if the ITD should introduce the {@code @PrePersist}/{@code @PreUpdate} callback
+     */
+    boolean hasCallback() {
+        return callbackBody != null;
+    }
+
+    List<AnnotationMetadata> getCallbackAnnotations() {
+        return callbackAnnotations;
+    }
+
+    String getCallbackBody() {
+        return callbackBody;
+    }
+
+    /**
+     * @return a statement declaring a local 'now' from the configured clock, or null for database generated timestamps
+     */
+    String getNowDeclaration() {
+        return nowDeclaration;
+    }
+
+    /**
+     * @return an expression converting the local 'now' to the field type, evaluated afresh at every use
+     */
+    String getNowValue() {
+        return nowValue;
+    }
+
+    /**
+     * @return an expression giving the local 'now' as epoch milliseconds, or null for database generated timestamps
+     */
+    String getNowMillis() {
+        return nowMillis;
+    }
+}
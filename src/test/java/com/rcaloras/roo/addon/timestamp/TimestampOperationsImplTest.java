@@ -0,0 +1,117 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Modifier;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.roo.classpath.PhysicalTypeCategory;
+import org.springframework.roo.classpath.PhysicalTypeIdentifier;
+import org.springframework.roo.classpath.TypeLocationService;
+import org.springframework.roo.classpath.TypeManagementService;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.MemberFindingUtils;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.project.LogicalPath;
+import org.springframework.roo.project.Path;
+import org.springframework.roo.project.ProjectOperations;
+
+/**
+ * Unit tests of the batch paths of {@link TimestampOperationsImpl}.
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class TimestampOperationsImplTest {
+
+    private static final JavaType ROO_JAVA_BEAN = new JavaType("org.springframework.roo.addon.javabean.RooJavaBean");
+    private static final JavaType ROO_TIMESTAMP = new JavaType(RooTimestamp.class.getName());
+
+    @Mock private ProjectOperations projectOperations;
+    @Mock private TypeLocationService typeLocationService;
+    @Mock private TypeManagementService typeManagementService;
+    @Mock private FileManager fileManager;
+    @Mock private TimestampStatistics statistics;
+    @InjectMocks private TimestampOperationsImpl operations;
+
+    @Test
+    public void annotateAllWritesEachUnannotatedTypeOnceBeforeScanning() {
+        ClassOrInterfaceTypeDetails plain = givenType("com.example.Plain", ROO_JAVA_BEAN);
+        ClassOrInterfaceTypeDetails annotated = givenType("com.example.Annotated", ROO_JAVA_BEAN, ROO_TIMESTAMP);
+        when(typeLocationService.findTypesWithAnnotation(ROO_JAVA_BEAN)).thenReturn(typesOf(plain, annotated));
+
+        operations.annotateAll();
+
+        ArgumentCaptor<ClassOrInterfaceTypeDetails> written = ArgumentCaptor.forClass(ClassOrInterfaceTypeDetails.class);
+        InOrder inOrder = inOrder(typeManagementService, fileManager);
+        inOrder.verify(typeManagementService).createOrUpdateTypeOnDisk(written.capture());
+        inOrder.verify(fileManager).scan();
+        assertEquals(plain.getName(), written.getValue().getName());
+        assertNotNull(MemberFindingUtils.getAnnotationOfType(written.getValue().getAnnotations(), ROO_TIMESTAMP));
+        verify(statistics, times(1)).recordTypeWrite();
+        verify(statistics, times(1)).recordAnnotateType(anyLong());
+    }
+
+    @Test
+    public void removeAllAnnotationsOnlyRewritesAnnotatedTypes() {
+        ClassOrInterfaceTypeDetails first = givenType("com.example.First", ROO_TIMESTAMP);
+        ClassOrInterfaceTypeDetails second = givenType("com.example.Second", ROO_JAVA_BEAN, ROO_TIMESTAMP);
+        when(typeLocationService.findTypesWithAnnotation(ROO_TIMESTAMP)).thenReturn(typesOf(first, second));
+
+        operations.removeAllAnnotations();
+
+        ArgumentCaptor<ClassOrInterfaceTypeDetails> written = ArgumentCaptor.forClass(ClassOrInterfaceTypeDetails.class);
+        verify(typeManagementService, times(2)).createOrUpdateTypeOnDisk(written.capture());
+        for (ClassOrInterfaceTypeDetails type : written.getAllValues()) {
+            assertNull(MemberFindingUtils.getAnnotationOfType(type.getAnnotations(), ROO_TIMESTAMP));
+        }
+        verify(fileManager).scan();
+    }
+
+    @Test
+    public void annotateAllWithNothingToChangeWritesNothing() {
+        ClassOrInterfaceTypeDetails annotated = givenType("com.example.Annotated", ROO_JAVA_BEAN, ROO_TIMESTAMP);
+        when(typeLocationService.findTypesWithAnnotation(ROO_JAVA_BEAN)).thenReturn(typesOf(annotated));
+
+        operations.annotateAll();
+
+        verify(typeManagementService, times(0)).createOrUpdateTypeOnDisk(any(ClassOrInterfaceTypeDetails.class));
+    }
+
+    private ClassOrInterfaceTypeDetails givenType(String name, JavaType... annotations) {
+        JavaType type = new JavaType(name);
+        String declaredBy = PhysicalTypeIdentifier.createIdentifier(type, LogicalPath.getInstance(Path.SRC_MAIN_JAVA, ""));
+        ClassOrInterfaceTypeDetailsBuilder builder = new ClassOrInterfaceTypeDetailsBuilder(declaredBy, Modifier.PUBLIC, type, PhysicalTypeCategory.CLASS);
+        for (JavaType annotation : annotations) {
+            builder.addAnnotation(new AnnotationMetadataBuilder(annotation));
+        }
+        ClassOrInterfaceTypeDetails details = builder.build();
+        when(typeLocationService.getTypeDetails(type)).thenReturn(details);
+        return details;
+    }
+
+    private static Set<JavaType> typesOf(ClassOrInterfaceTypeDetails... types) {
+        Set<JavaType> names = new LinkedHashSet<JavaType>();
+        for (ClassOrInterfaceTypeDetails type : types) {
+            names.add(type.getName());
+        }
+        return names;
+    }
+}
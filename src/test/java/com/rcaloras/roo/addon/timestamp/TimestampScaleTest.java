@@ -0,0 +1,341 @@
+package com.rcaloras.roo.addon.timestamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.roo.classpath.PhysicalTypeCategory;
+import org.springframework.roo.classpath.PhysicalTypeIdentifier;
+import org.springframework.roo.classpath.TypeLocationService;
+import org.springframework.roo.classpath.TypeManagementService;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetails;
+import org.springframework.roo.classpath.details.ClassOrInterfaceTypeDetailsBuilder;
+import org.springframework.roo.classpath.details.DefaultPhysicalTypeMetadata;
+import org.springframework.roo.classpath.details.FieldMetadata;
+import org.springframework.roo.classpath.details.FieldMetadataBuilder;
+import org.springframework.roo.classpath.details.MemberFindingUtils;
+import org.springframework.roo.classpath.details.MethodMetadataBuilder;
+import org.springframework.roo.classpath.details.annotations.AnnotationMetadataBuilder;
+import org.springframework.roo.classpath.itd.InvocableMemberBodyBuilder;
+import org.springframework.roo.classpath.itd.ItdSourceFileComposer;
+import org.springframework.roo.classpath.itd.ItdTypeDetailsProvidingMetadataItem;
+import org.springframework.roo.classpath.persistence.PersistenceMemberLocator;
+import org.springframework.roo.metadata.MetadataDependencyRegistry;
+import org.springframework.roo.model.JavaSymbolName;
+import org.springframework.roo.model.JavaType;
+import org.springframework.roo.process.manager.FileManager;
+import org.springframework.roo.project.LogicalPath;
+import org.springframework.roo.project.Path;
+
+/**
+ * Scale harness for the add-on pipeline. It builds a synthetic project of @RooJavaBean entities in memory, runs
+ * annotateAll, a full {@link TimestampMetadataProvider} regeneration (including rendering every ITD), a second one with
+ * nothing changed and removeAllAnnotations against local stand-ins for Roo's type services, and records the wall time, the bytes allocated
+ * and the heap retained by the live metadata of each phase.
+ * <p>
+ * It is skipped unless a size is given, e.g.
+ * {@code mvn test -Dtest=TimestampScaleTest -Dtimestamp.scale.entities=1000,10000 -Dtimestamp.scale.fields=30}. The
+ * report is written to target/timestamp-scale.json, or to the file named by {@code timestamp.scale.report}.
+ */
+public class TimestampScaleTest {
+
+    private static final JavaType ROO_JAVA_BEAN = new JavaType("org.springframework.roo.addon.javabean.RooJavaBean");
+    private static final JavaType ROO_JPA_ACTIVE_RECORD = new JavaType("org.springframework.roo.addon.jpa.activerecord.RooJpaActiveRecord");
+    private static final JavaType ROO_TIMESTAMP = new JavaType(RooTimestamp.class.getName());
+    private static final LogicalPath SRC_MAIN_JAVA = LogicalPath.getInstance(Path.SRC_MAIN_JAVA, "");
+    private static final String PACKAGE = "com.example.scale.domain";
+
+    @Test
+    public void scale() throws Exception {
+        String entities = System.getProperty("timestamp.scale.entities");
+        assumeTrue(entities != null && entities.trim().length() > 0);
+        int fields = Integer.getInteger("timestamp.scale.fields", 20);
+        int methods = Integer.getInteger("timestamp.scale.methods", fields);
+
+        StringBuilder report = new StringBuilder("[");
+        for (String size : entities.split(",")) {
+            if (report.length() > 1) {
+                report.append(',');
+            }
+            report.append(run(Integer.parseInt(size.trim()), fields, methods));
+        }
+        report.append(']');
+        writeReport(report.toString());
+    }
+
+    private String run(int entityCount, int fieldCount, int methodCount) throws Exception {
+        final Map<JavaType, ClassOrInterfaceTypeDetails> project = new LinkedHashMap<JavaType, ClassOrInterfaceTypeDetails>();
+        for (int i = 0; i < entityCount; i++) {
+            ClassOrInterfaceTypeDetails entity = createEntity(new JavaType(PACKAGE + ".Entity" + i), fieldCount, methodCount);
+            project.put(entity.getName(), entity);
+        }
+
+        TimestampStatisticsImpl statistics = new TimestampStatisticsImpl();
+        TimestampOperationsImpl operations = new TimestampOperationsImpl();
+        inject(operations, "typeLocationService", typeLocationService(project));
+        inject(operations, "typeManagementService", typeManagementService(project));
+        inject(operations, "fileManager", mock(FileManager.class));
+        inject(operations, "statistics", statistics);
+
+        TimestampMetadataProvider provider = new TimestampMetadataProvider();
+        inject(provider, "persistenceMemberLocator", persistenceMemberLocator(project));
+        inject(provider, "statistics", statistics);
+        inject(provider, "metadataDependencyRegistry", mock(MetadataDependencyRegistry.class));
+
+        StringBuilder phases = new StringBuilder();
+
+        Measurement annotate = Measurement.start();
+        operations.annotateAll();
+        phases.append("\"annotateAll\":").append(annotate.stop(null));
+        assertEquals(entityCount, countAnnotated(project));
+
+        // Keep every metadata item reachable, as Roo's metadata cache does, so the retained heap can be measured
+        Measurement regenerate = Measurement.start();
+        List<ItdTypeDetailsProvidingMetadataItem> live = new ArrayList<ItdTypeDetailsProvidingMetadataItem>(entityCount);
+        long itdChars = regenerate(provider, project, live);
+        phases.append(",\"regenerate\":").append(regenerate.stop(",\"itdChars\":" + itdChars));
+        long retained = Measurement.retainedSince(regenerate);
+        phases.append(",\"retainedHeapBytes\":").append(retained).append(",\"retainedHeapBytesPerEntity\":").append(retained / Math.max(1, entityCount));
+        live.clear();
+
+        // A second notification with nothing changed, as Roo sends for every save of a type; the provider may reuse
+        // its recent builds, and the ITDs must come out the same
+        Measurement unchanged = Measurement.start();
+        assertEquals(itdChars, regenerate(provider, project, live));
+        phases.append(",\"regenerateUnchanged\":").append(unchanged.stop(null));
+        live.clear();
+
+        Measurement remove = Measurement.start();
+        operations.removeAllAnnotations();
+        phases.append(",\"removeAll\":").append(remove.stop(null));
+        assertEquals(0, countAnnotated(project));
+
+        return "{\"entities\":" + entityCount + ",\"fields\":" + fieldCount + ",\"methods\":" + methodCount + "," + phases + ",\"stats\":"
+                + statistics.getReport(true) + "}";
+    }
+
+    /**
+     * Asks the provider for the metadata of every governor and renders its ITD, as AbstractItdMetadataProvider does
+     *
+     * @return the characters of all rendered ITDs
+     */
+    private static long regenerate(TimestampMetadataProvider provider, Map<JavaType, ClassOrInterfaceTypeDetails> project,
+            List<ItdTypeDetailsProvidingMetadataItem> live) {
+        long itdChars = 0;
+        for (ClassOrInterfaceTypeDetails governor : project.values()) {
+            JavaType name = governor.getName();
+            ItdTypeDetailsProvidingMetadataItem metadata = provider.getMetadata(TimestampMetadata.createIdentifier(name, SRC_MAIN_JAVA),
+                    new JavaType(name.getFullyQualifiedTypeName() + "_Roo_Timestamp"), new DefaultPhysicalTypeMetadata(governor.getDeclaredByMetadataId(),
+                            getCanonicalPath(name), governor), getCanonicalPath(name).replace(".java", "_Roo_Timestamp.aj"));
+            itdChars += new ItdSourceFileComposer(metadata.getMemberHoldingTypeDetails()).getOutput().length();
+            live.add(metadata);
+        }
+        return itdChars;
+    }
+
+    private static ClassOrInterfaceTypeDetails createEntity(JavaType name, int fieldCount, int methodCount) {
+        String declaredBy = PhysicalTypeIdentifier.createIdentifier(name, SRC_MAIN_JAVA);
+        ClassOrInterfaceTypeDetailsBuilder builder = new ClassOrInterfaceTypeDetailsBuilder(declaredBy, Modifier.PUBLIC, name, PhysicalTypeCategory.CLASS);
+        builder.addAnnotation(new AnnotationMetadataBuilder(ROO_JAVA_BEAN));
+        builder.addAnnotation(new AnnotationMetadataBuilder(ROO_JPA_ACTIVE_RECORD));
+        builder.addField(new FieldMetadataBuilder(declaredBy, Modifier.PRIVATE, new ArrayList<AnnotationMetadataBuilder>(), new JavaSymbolName("id"),
+                JavaType.LONG_OBJECT));
+        for (int i = 0; i < fieldCount; i++) {
+            builder.addField(new FieldMetadataBuilder(declaredBy, Modifier.PRIVATE, new ArrayList<AnnotationMetadataBuilder>(), new JavaSymbolName("field" + i),
+                    JavaType.STRING));
+        }
+        for (int i = 0; i < methodCount; i++) {
+            InvocableMemberBodyBuilder body = new InvocableMemberBodyBuilder();
+            body.appendFormalLine("return String.valueOf(field" + (fieldCount == 0 ? "" : String.valueOf(i % fieldCount)) + ");");
+            builder.addMethod(new MethodMetadataBuilder(declaredBy, Modifier.PUBLIC, new JavaSymbolName("describe" + i), JavaType.STRING, body));
+        }
+        return builder.build();
+    }
+
+    private static String getCanonicalPath(JavaType name) {
+        return "/scale/src/main/java/" + name.getFullyQualifiedTypeName().replace('.', '/') + ".java";
+    }
+
+    private static int countAnnotated(Map<JavaType, ClassOrInterfaceTypeDetails> project) {
+        int annotated = 0;
+        for (ClassOrInterfaceTypeDetails type : project.values()) {
+            if (MemberFindingUtils.getAnnotationOfType(type.getAnnotations(), ROO_TIMESTAMP) != null) {
+                annotated++;
+            }
+        }
+        return annotated;
+    }
+
+    /**
+     * A TypeLocationService that finds and resolves the in-memory project's types
+     */
+    private static TypeLocationService typeLocationService(final Map<JavaType, ClassOrInterfaceTypeDetails> project) {
+        TypeLocationService typeLocationService = mock(TypeLocationService.class);
+        when(typeLocationService.findTypesWithAnnotation(any(JavaType.class))).thenAnswer(new Answer<Set<JavaType>>() {
+            public Set<JavaType> answer(InvocationOnMock invocation) {
+                List<Object> annotations = Arrays.asList(invocation.getArguments());
+                Set<JavaType> found = new LinkedHashSet<JavaType>();
+                for (ClassOrInterfaceTypeDetails type : project.values()) {
+                    for (Object annotation : annotations) {
+                        if (MemberFindingUtils.getAnnotationOfType(type.getAnnotations(), (JavaType) annotation) != null) {
+                            found.add(type.getName());
+                            break;
+                        }
+                    }
+                }
+                return found;
+            }
+        });
+        when(typeLocationService.getTypeDetails(any(JavaType.class))).thenAnswer(new Answer<ClassOrInterfaceTypeDetails>() {
+            public ClassOrInterfaceTypeDetails answer(InvocationOnMock invocation) {
+                return project.get(invocation.getArguments()[0]);
+            }
+        });
+        return typeLocationService;
+    }
+
+    /**
+     * A TypeManagementService that writes types back into the in-memory project
+     */
+    private static TypeManagementService typeManagementService(final Map<JavaType, ClassOrInterfaceTypeDetails> project) {
+        TypeManagementService typeManagementService = mock(TypeManagementService.class);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                ClassOrInterfaceTypeDetails type = (ClassOrInterfaceTypeDetails) invocation.getArguments()[0];
+                project.put(type.getName(), type);
+                return null;
+            }
+        }).when(typeManagementService).createOrUpdateTypeOnDisk(any(ClassOrInterfaceTypeDetails.class));
+        return typeManagementService;
+    }
+
+    private static PersistenceMemberLocator persistenceMemberLocator(final Map<JavaType, ClassOrInterfaceTypeDetails> project) {
+        PersistenceMemberLocator persistenceMemberLocator = mock(PersistenceMemberLocator.class);
+        when(persistenceMemberLocator.getIdentifierFields(any(JavaType.class))).thenAnswer(new Answer<List<FieldMetadata>>() {
+            public List<FieldMetadata> answer(InvocationOnMock invocation) {
+                ClassOrInterfaceTypeDetails type = project.get(invocation.getArguments()[0]);
+                FieldMetadata id = type == null ? null : type.getDeclaredField(new JavaSymbolName("id"));
+                return id == null ? Collections.<FieldMetadata> emptyList() : Collections.singletonList(id);
+            }
+        });
+        return persistenceMemberLocator;
+    }
+
+    /**
+     * Sets a private @Reference field the OSGi container would normally bind
+     */
+    private static void inject(Object target, String fieldName, Object value) throws IllegalAccessException {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(fieldName);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // Declared further up the hierarchy
+            }
+        }
+        throw new IllegalArgumentException(target.getClass().getName() + " has no field " + fieldName);
+    }
+
+    private static void writeReport(String report) throws IOException {
+        File file = new File(System.getProperty("timestamp.scale.report", "target/timestamp-scale.json"));
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(report);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Wall time and bytes allocated by the calling thread over one phase, plus the heap in use after a full collection
+     * at its start so the heap retained by the phase's results can be derived
+     */
+    private static final class Measurement {
+        private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+        private final long heapBefore;
+        private final long allocatedBefore;
+        private final long startNanos;
+
+        private Measurement(long heapBefore) {
+            this.heapBefore = heapBefore;
+            this.allocatedBefore = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        static Measurement start() throws InterruptedException {
+            return new Measurement(collectedHeap());
+        }
+
+        String stop(String extra) {
+            long wallMillis = (System.nanoTime() - startNanos) / 1000000L;
+            long allocated = allocatedBytes();
+            return "{\"wallMillis\":" + wallMillis + ",\"allocatedBytes\":" + (allocated < 0 || allocatedBefore < 0 ? -1 : allocated - allocatedBefore)
+                    + (extra == null ? "" : extra) + "}";
+        }
+
+        /**
+         * @return the heap still in use after a full collection, minus the heap in use when the phase started
+         */
+        static long retainedSince(Measurement measurement) throws InterruptedException {
+            return collectedHeap() - measurement.heapBefore;
+        }
+
+        /**
+         * @return the bytes allocated by this thread so far, or -1 if the JVM cannot tell
+         */
+        private static long allocatedBytes() {
+            java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (threads instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+
+        /**
+         * Collects until the used heap stops shrinking, so only reachable objects are counted
+         */
+        private static long collectedHeap() throws InterruptedException {
+            long used = Long.MAX_VALUE;
+            for (int i = 0; i < 10; i++) {
+                System.gc();
+                Thread.sleep(50);
+                long now = MEMORY.getHeapMemoryUsage().getUsed();
+                if (now >= used) {
+                    return now;
+                }
+                used = now;
+            }
+            return used;
+        }
+    }
+}